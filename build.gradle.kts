@@ -9,12 +9,32 @@ repositories {
     mavenCentral()
 }
 
+// Бенчмарки JMH: src/jmh/java, запуск ./gradlew jmh -PjmhArgs="<аргументы JMH>"
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+    // Тесты используют генератор фидов из бенчмарков (YmlCatalogGenerator)
+    test {
+        compileClasspath += sourceSets["jmh"].output
+        runtimeClasspath += sourceSets["jmh"].output
+    }
+}
+
+configurations["jmhImplementation"].extendsFrom(configurations.implementation.get())
+configurations["jmhRuntimeOnly"].extendsFrom(configurations.runtimeOnly.get())
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
     implementation("org.apache.groovy:groovy-xml:5.0.3")
     implementation("org.postgresql:postgresql:42.7.8")
     implementation("org.json:json:20231013")
+    implementation("com.zaxxer:HikariCP:5.1.0")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 tasks.withType<JavaExec> {
@@ -22,6 +42,25 @@ tasks.withType<JavaExec> {
     standardInput = System.`in`
 }
 
+// Тесты с бд используют postgres из docker-compose, другой адрес: -PtestDbUrl=jdbc:postgresql://...
+// Если бд недоступна, эти тесты пропускаются
 tasks.test {
     useJUnitPlatform()
+    (findProperty("testDbUrl") as String?)?.let { systemProperty("test.db.url", it) }
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args((findProperty("jmhArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: emptyList<String>())
+}
+
+tasks.register<JavaExec>("generateCatalog") {
+    group = "benchmark"
+    description = "Writes a synthetic yml_catalog: -PcatalogArgs=\"<file> <offers> <params> <depth>\""
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.example.benchmark.YmlCatalogGenerator")
+    args((findProperty("catalogArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: emptyList<String>())
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package org.example.benchmark;
+
+import org.example.feed.FeedSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Фид из массива байт: бенчмарки разбора не зависят от диска и сети
+ */
+public class BytesFeedSource implements FeedSource {
+    private final byte[] xml;
+
+    public BytesFeedSource(byte[] xml) {
+        this.xml = xml;
+    }
+
+    @Override
+    public void fetch() {
+    }
+
+    @Override
+    public InputStream open() {
+        return new ByteArrayInputStream(xml);
+    }
+
+    @Override
+    public String version() {
+        return Integer.toString(xml.length);
+    }
+}
@@ -0,0 +1,31 @@
+package org.example.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Синтетический фид, общий для бенчмарков. Размер задаётся параметрами JMH (-p offers=...)
+ */
+@State(Scope.Benchmark)
+public class CatalogState {
+    @Param({"1000", "10000"})
+    public int offers;
+
+    @Param({"8"})
+    public int paramsPerOffer;
+
+    @Param({"4"})
+    public int categoryDepth;
+
+    public byte[] xml;
+    public BytesFeedSource feedSource;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        xml = new YmlCatalogGenerator(offers, paramsPerOffer, categoryDepth).toBytes();
+        feedSource = new BytesFeedSource(xml);
+    }
+}
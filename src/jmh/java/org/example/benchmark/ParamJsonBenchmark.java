@@ -0,0 +1,49 @@
+package org.example.benchmark;
+
+import org.example.catalog.YmlStreamParser;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Преобразование param предложений в jsonb строку (как при разборе xml)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParamJsonBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Params {
+        List<Map<String, String>> paramMaps = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setup(CatalogState state) throws Exception {
+            try (InputStream xmlStream = state.feedSource.open()) {
+                YmlStreamParser.parse(xmlStream, "offers", (tableName, row) -> {
+                    String param = row.get("param");
+                    if (param == null) return;
+                    Map<String, String> paramMap = new HashMap<>();
+                    new JSONObject(param).toMap().forEach((name, value) -> paramMap.put(name, String.valueOf(value)));
+                    paramMaps.add(paramMap);
+                });
+            }
+        }
+    }
+
+    @Benchmark
+    public void toJson(Params params, Blackhole blackhole) {
+        for (Map<String, String> paramMap : params.paramMaps) {
+            blackhole.consume(new JSONObject(paramMap).toString());
+        }
+    }
+}
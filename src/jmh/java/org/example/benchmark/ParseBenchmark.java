@@ -0,0 +1,39 @@
+package org.example.benchmark;
+
+import org.example.catalog.CatalogSnapshot;
+import org.example.catalog.YmlStreamParser;
+import org.example.service.SyncOptions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор xml: XmlSlurper и потоковый разбор, вместе с выводом схем и статистики столбцов (CatalogSnapshot)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    private static final int EXACT_DISTINCT_LIMIT = new SyncOptions().getExactDistinctLimit();
+
+    @Benchmark
+    public CatalogSnapshot slurperSnapshot(CatalogState state) throws Exception {
+        return CatalogSnapshot.load(state.feedSource, false, EXACT_DISTINCT_LIMIT);
+    }
+
+    @Benchmark
+    public CatalogSnapshot streamingSnapshot(CatalogState state) throws Exception {
+        return CatalogSnapshot.load(state.feedSource, true, EXACT_DISTINCT_LIMIT);
+    }
+
+    @Benchmark
+    public void streamParse(CatalogState state, Blackhole blackhole) throws Exception {
+        try (InputStream xmlStream = state.feedSource.open()) {
+            YmlStreamParser.parse(xmlStream, (tableName, row) -> blackhole.consume(row));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.benchmark;
+
+import org.example.catalog.CatalogSnapshot;
+import org.example.catalog.RowFingerprint;
+import org.example.service.SyncOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проход по строкам offers снимка с чтением значений всех колонок и отпечатками строк, как при загрузке (без обращения к бд).
+ * Выделение памяти на проход - с профилировщиком gc: ./gradlew jmh -PjmhArgs="RowLoop -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowLoopBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+        CatalogSnapshot snapshot;
+        List<String> columnNames;
+
+        @Setup(Level.Trial)
+        public void setup(CatalogState state) throws Exception {
+            snapshot = CatalogSnapshot.load(state.feedSource, false, new SyncOptions().getExactDistinctLimit());
+            columnNames = snapshot.getTableSchema("offers").getColumnNames();
+        }
+    }
+
+    /**
+     * Значения колонок схемы в порядке колонок, как при записи строки COPY
+     */
+    @Benchmark
+    public long columnValues(Snapshot snapshot) throws Exception {
+        long[] length = {0};
+        snapshot.snapshot.forEachRow("offers", (tableName, row) -> {
+            for (String columnName : snapshot.columnNames) {
+                String value = row.get(columnName);
+                if (value != null) length[0] += value.length();
+            }
+        });
+        return length[0];
+    }
+
+    @Benchmark
+    public long fingerprints(Snapshot snapshot) throws Exception {
+        long[] hash = {0};
+        snapshot.snapshot.forEachRow("offers", (tableName, row) -> hash[0] += RowFingerprint.of(row));
+        return hash[0];
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.benchmark;
+
+import org.example.catalog.YmlStreamParser;
+import org.example.schema.ColumnStats;
+import org.example.schema.TableSchema;
+import org.example.service.SyncOptions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Вывод схемы offers по строкам (типы и статистика столбцов) и сравнение схем из xml и бд
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Schemas {
+        List<Map<String, String>> rows = new ArrayList<>();
+        TableSchema feedSchema;
+        TableSchema sameSchema;
+        TableSchema changedSchema;
+
+        @Setup(Level.Trial)
+        public void setup(CatalogState state) throws Exception {
+            try (InputStream xmlStream = state.feedSource.open()) {
+                YmlStreamParser.parse(xmlStream, "offers", (tableName, row) -> rows.add(row));
+            }
+            feedSchema = offersSchema("numeric", false);
+            sameSchema = offersSchema("numeric", false);
+            // В бд нет колонки vendorcode, а price - integer: нужны ADD COLUMN и ALTER COLUMN TYPE
+            changedSchema = offersSchema("int4", true);
+        }
+
+        private static TableSchema offersSchema(String priceType, boolean withoutVendorCode) {
+            TableSchema tableSchema = new TableSchema("offers");
+            tableSchema.addColumn("available", "boolean", "");
+            tableSchema.addColumn("categoryid", "integer", "");
+            tableSchema.addColumn("currencyid", "varchar", "");
+            tableSchema.addColumn("description", "varchar", "");
+            tableSchema.addColumn("id", "integer", "PRIMARY KEY");
+            tableSchema.addColumn("name", "varchar", "");
+            tableSchema.addColumn("param", "jsonb", "");
+            tableSchema.addColumn("price", priceType, "");
+            if (!withoutVendorCode) tableSchema.addColumn("vendorcode", "varchar", "");
+            tableSchema.sortColumns();
+            return tableSchema;
+        }
+    }
+
+    @Benchmark
+    public void inferColumnStats(Schemas schemas, Blackhole blackhole) {
+        int exactDistinctLimit = new SyncOptions().getExactDistinctLimit();
+        Map<String, ColumnStats.Collector> collectors = new HashMap<>();
+        for (Map<String, String> row : schemas.rows) {
+            row.forEach((column, value) ->
+                    collectors.computeIfAbsent(column, k -> new ColumnStats.Collector(exactDistinctLimit)).add(value));
+        }
+        collectors.forEach((column, collector) -> blackhole.consume(collector.toStats(schemas.rows.size())));
+    }
+
+    @Benchmark
+    public boolean schemaEquals(Schemas schemas) {
+        return schemas.sameSchema.equals(schemas.feedSchema);
+    }
+
+    @Benchmark
+    public boolean canLoad(Schemas schemas) {
+        return schemas.sameSchema.canLoad(schemas.feedSchema);
+    }
+
+    @Benchmark
+    public String newColumnsSql(Schemas schemas) throws Exception {
+        return schemas.changedSchema.newColumnsSql(schemas.feedSchema);
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.benchmark;
+
+import org.example.catalog.CatalogSnapshot;
+import org.example.service.SyncOptions;
+import org.example.service.XmlDBService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Формирование sql getTableDDL для offers (без обращения к бд): фид разбирается один раз, измеряется только
+ * формирование sql по снимку
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableDDLBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+        CatalogSnapshot snapshot;
+
+        @Setup(Level.Trial)
+        public void setup(CatalogState state) throws Exception {
+            snapshot = CatalogSnapshot.load(state.feedSource, false, new SyncOptions().getExactDistinctLimit());
+        }
+    }
+
+    @Benchmark
+    public String tableDDL(Snapshot snapshot) throws Exception {
+        return XmlDBService.getTableDDL(snapshot.snapshot, "offers");
+    }
+}
@@ -0,0 +1,181 @@
+package org.example.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Генератор синтетического yml_catalog заданного размера.
+ * При одинаковых параметрах и seed генерируется одинаковый документ, поэтому результаты бенчмарков воспроизводимы
+ */
+public final class YmlCatalogGenerator {
+    public static final long DEFAULT_SEED = 42;
+    public static final int DEFAULT_CATEGORY_FANOUT = 3;
+
+    private static final String[] PARAM_NAMES = {"Цвет", "Размер", "Материал", "Вес", "Страна", "Бренд", "Сезон", "Пол"};
+    private static final String[] PARAM_VALUES = {"красный", "XL", "хлопок", "1.5", "Россия", "Acme & Co", "лето", "унисекс"};
+    private static final String[] WORDS = {"товар", "новый", "лучший", "комплект", "набор", "<подарок>", "мини", "про"};
+    private static final String[] CURRENCIES = {"RUR", "USD", "EUR"};
+
+    private final int offers;
+    private final int paramsPerOffer;
+    private final int categoryDepth;
+    private final int categoryFanout;
+    private final long seed;
+
+    /**
+     * @param offers количество предложений
+     * @param paramsPerOffer количество param у предложения
+     * @param categoryDepth глубина дерева категорий
+     */
+    public YmlCatalogGenerator(int offers, int paramsPerOffer, int categoryDepth) {
+        this(offers, paramsPerOffer, categoryDepth, DEFAULT_CATEGORY_FANOUT, DEFAULT_SEED);
+    }
+
+    /**
+     * @param offers количество предложений
+     * @param paramsPerOffer количество param у предложения
+     * @param categoryDepth глубина дерева категорий
+     * @param categoryFanout количество дочерних категорий у каждой категории
+     * @param seed начальное значение генератора случайных чисел
+     */
+    public YmlCatalogGenerator(int offers, int paramsPerOffer, int categoryDepth, int categoryFanout, long seed) {
+        if (offers < 0 || paramsPerOffer < 0 || categoryDepth < 1 || categoryFanout < 1) {
+            throw new IllegalArgumentException("Invalid catalog size");
+        }
+        this.offers = offers;
+        this.paramsPerOffer = paramsPerOffer;
+        this.categoryDepth = categoryDepth;
+        this.categoryFanout = categoryFanout;
+        this.seed = seed;
+    }
+
+    /**
+     * Записывает документ в writer
+     */
+    public void write(Writer writer) throws IOException {
+        Random random = new Random(seed);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<!DOCTYPE yml_catalog SYSTEM \"shops.dtd\">\n");
+        writer.write("<yml_catalog date=\"2024-01-01 10:00\">\n  <shop>\n");
+        writer.write("    <name>Shop</name>\n    <company>Co</company>\n");
+
+        writer.write("    <currencies>\n");
+        writer.write("      <currency id=\"RUR\" rate=\"1\"/>\n");
+        writer.write("      <currency id=\"USD\" rate=\"90.5\"/>\n");
+        writer.write("      <currency id=\"EUR\" rate=\"98.25\"/>\n");
+        writer.write("    </currencies>\n");
+
+        List<Integer> leafCategories = writeCategories(writer);
+
+        writer.write("    <offers>\n");
+        for (int i = 1; i <= offers; i++) writeOffer(writer, random, i, leafCategories);
+        writer.write("    </offers>\n");
+        writer.write("  </shop>\n</yml_catalog>\n");
+    }
+
+    /**
+     * @return документ в кодировке UTF-8
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            write(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Записывает документ в файл
+     * @param file путь к файлу
+     * @return путь к файлу
+     */
+    public Path writeTo(Path file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8))) {
+            write(writer);
+        }
+        return file;
+    }
+
+    /**
+     * Дерево категорий: categoryFanout дочерних категорий на каждом уровне, categoryDepth уровней
+     * @return id категорий последнего уровня
+     */
+    private List<Integer> writeCategories(Writer writer) throws IOException {
+        writer.write("    <categories>\n");
+        List<Integer> level = new ArrayList<>();
+        int nextId = 1;
+        level.add(nextId);
+        writer.write("      <category id=\"" + nextId++ + "\">Каталог</category>\n");
+        for (int depth = 2; depth <= categoryDepth; depth++) {
+            List<Integer> nextLevel = new ArrayList<>();
+            for (int parentId : level) {
+                for (int i = 0; i < categoryFanout; i++) {
+                    int id = nextId++;
+                    nextLevel.add(id);
+                    writer.write("      <category id=\"" + id + "\" parentId=\"" + parentId + "\">Категория " + id + "</category>\n");
+                }
+            }
+            level = nextLevel;
+        }
+        writer.write("    </categories>\n");
+        return level;
+    }
+
+    private void writeOffer(Writer writer, Random random, int id, List<Integer> categories) throws IOException {
+        writer.write("      <offer id=\"" + id + "\" available=\"" + random.nextBoolean() + "\">\n");
+        writer.write("        <price>" + (100 + random.nextInt(100_000)) + "." + random.nextInt(10) + "0</price>\n");
+        writer.write("        <currencyId>" + CURRENCIES[random.nextInt(CURRENCIES.length)] + "</currencyId>\n");
+        writer.write("        <categoryId>" + categories.get(random.nextInt(categories.size())) + "</categoryId>\n");
+        writer.write("        <name>" + escape(words(random, 3)) + " " + id + "</name>\n");
+        writer.write("        <description>" + escape(words(random, 12)) + "</description>\n");
+        for (int i = 0; i < paramsPerOffer; i++) {
+            // Названия param уникальны в пределах предложения
+            String name = i < PARAM_NAMES.length ? PARAM_NAMES[i] : "Параметр " + i;
+            writer.write("        <param name=\"" + escape(name) + "\">" +
+                    escape(PARAM_VALUES[random.nextInt(PARAM_VALUES.length)]) + "</param>\n");
+        }
+        writer.write("        <vendorCode>" + String.format("%08d", random.nextInt(100_000_000)) + "</vendorCode>\n");
+        writer.write("      </offer>\n");
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(' ');
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Запись документа в файл: {@code <file> <offers> <paramsPerOffer> <categoryDepth> [categoryFanout] [seed]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: YmlCatalogGenerator <file> <offers> <paramsPerOffer> <categoryDepth> [categoryFanout] [seed]");
+            System.exit(1);
+        }
+        YmlCatalogGenerator generator = new YmlCatalogGenerator(
+                Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_CATEGORY_FANOUT,
+                args.length > 5 ? Long.parseLong(args[5]) : DEFAULT_SEED);
+        Path file = generator.writeTo(Path.of(args[0]));
+        System.out.println("Файл " + file + " записан, размер " + Files.size(file) + " байт");
+    }
+}
@@ -1,18 +1,30 @@
 package org.example;
 
+import com.zaxxer.hikari.HikariDataSource;
+import org.example.service.DataSourceFactory;
+import org.example.service.SyncDaemon;
+import org.example.service.SyncOptions;
 import org.example.service.XmlDBService;
 
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
 
 //TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
 // click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
 public class Main {
     public static void main(String[] args) {
-        try {
-            System.setOut(new PrintStream(System.out, true, StandardCharsets.UTF_8));
-            Connection connection = DriverManager.getConnection("jdbc:postgresql://localhost:5433/test_db", "admin", "admin");
+        System.setOut(new PrintStream(System.out, true, StandardCharsets.UTF_8));
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            runDaemon(args);
+            return;
+        }
+        // Общий пул соединений для сервиса и вывода таблиц
+        try (HikariDataSource dataSource = DataSourceFactory.createDefault();
+             Connection connection = dataSource.getConnection()) {
             // Удаление содержимого таблицы
             try (Statement stmt = connection.createStatement()) {
                 // Удаляем всю схему со всеми таблицами (CASCADE обязателен)
@@ -23,78 +35,114 @@ public class Main {
                 stmt.execute("GRANT ALL ON SCHEMA public TO public");
             }
             // Создание сервиса
-            XmlDBService xmlDBService = new XmlDBService();
+            try (XmlDBService xmlDBService = new XmlDBService(dataSource, new SyncOptions().parallelism(3))) {
+                runDemo(xmlDBService, connection);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            System.out.println("Названия таблиц в xml: " + xmlDBService.getTableNames() + "\n");
+    /**
+     * Демонстрация работы сервиса: создание таблиц, удаление колонки и её восстановление из xml
+     */
+    private static void runDemo(XmlDBService xmlDBService, Connection connection) throws Exception {
+        System.out.println("Названия таблиц в xml: " + xmlDBService.getTableNames() + "\n");
 
-            // Запрос для создания и заполнения таблицы 'currencies'
-            System.out.println("Запрос для создания и заполнения таблицы 'currencies'");
-            System.out.println(xmlDBService.getTableDDL("currencies"));
-            System.out.println();
+        // Запрос для создания и заполнения таблицы 'currencies'
+        System.out.println("Запрос для создания и заполнения таблицы 'currencies'");
+        System.out.println(xmlDBService.getTableDDL("currencies"));
+        System.out.println();
 
-            // Создание таблицы currencies на основе xml
-            xmlDBService.update("currencies");
+        // Создание таблицы currencies на основе xml
+        xmlDBService.update("currencies");
 
-            // Вывод содержимого таблицы currencies
-            printTable(connection, "currencies");
+        // Вывод содержимого таблицы currencies
+        printTable(connection, "currencies");
 
-            // Создание таблицы categories на основе xml
-            xmlDBService.update("categories");
+        // Создание таблицы categories на основе xml
+        xmlDBService.update("categories");
 
-            // Вывод содержимого таблицы categories
-            printTable(connection, "categories");
+        // Вывод содержимого таблицы categories
+        printTable(connection, "categories");
 
-            // Создание остальных таблиц (offers) на основе xml
-            xmlDBService.update();
+        // Создание остальных таблиц (offers) на основе xml
+        System.out.println("Результат обновления таблиц: " + xmlDBService.update() + "\n");
 
-            // Наименования столбцов таблицы offers
-            System.out.println("Колонки таблицы offers (из бд):");
-            System.out.println(xmlDBService.getColumnNames("offers"));
-            System.out.println();
+        // Наименования столбцов таблицы offers
+        System.out.println("Колонки таблицы offers (из бд):");
+        System.out.println(xmlDBService.getColumnNames("offers"));
+        System.out.println();
 
-            // Проверка, является ли колонка id уникальным значением таблицы offers
-            System.out.println("Колонка id в таблице offers уникальна? " + xmlDBService.isColumnId("offers", "id"));
+        // Проверка, является ли колонка id уникальным значением таблицы offers
+        System.out.println("Колонка id в таблице offers уникальна? " + xmlDBService.isColumnId("offers", "id"));
 
-            // Проверка, является ли колонка vendorCode уникальным значением таблицы offers
-            System.out.println("Колонка vendorCode в таблице offers уникальна? " + xmlDBService.isColumnId("offers", "vendorCode"));
-            System.out.println();
+        // Проверка, является ли колонка vendorCode уникальным значением таблицы offers
+        System.out.println("Колонка vendorCode в таблице offers уникальна? " + xmlDBService.isColumnId("offers", "vendorCode"));
+        System.out.println();
 
-            // Удаление колонки rate из currencies ля имитации 'появления' новой колонки в xml
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute("ALTER TABLE currencies DROP rate");
-            }
-
-            // Проверка удаления колонки rate
-            System.out.println("Таблица currencies после удаления столбца rate:");
-            printTable(connection, "currencies");
-            System.out.println();
+        // Удаление колонки rate из currencies ля имитации 'появления' новой колонки в xml
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE currencies DROP rate");
+        }
+        // Таблица изменена в обход сервиса, сбрасываем кэш схем
+        xmlDBService.refreshSchemas();
 
-            // Наименования столбцов таблицы offers
-            System.out.println("Колонки таблицы currencies после удаления колонки:");
-            System.out.println(xmlDBService.getColumnNames("currencies"));
-            System.out.println();
+        // Проверка удаления колонки rate
+        System.out.println("Таблица currencies после удаления столбца rate:");
+        printTable(connection, "currencies");
+        System.out.println();
 
-            // При попытке обновления таблицы из xml должна возникнуть ошибка
-            System.out.println("При попытке обновления таблицы из xml должна возникнуть ошибка");
-            try {
-                xmlDBService.update("currencies");
-            } catch (Exception e) {
-                System.out.println("Вызов xmlDBService.update(currencies) привёл к ошибке:");
-                System.out.println(e);
-                System.out.println();
-            }
+        // Наименования столбцов таблицы offers
+        System.out.println("Колонки таблицы currencies после удаления колонки:");
+        System.out.println(xmlDBService.getColumnNames("currencies"));
+        System.out.println();
 
-            // Запрос для возврата удаленной колонки rate из currencies
-            System.out.println("sql запрос для добавления 'новой' колонки:");
-            System.out.println(xmlDBService.getDDLChange("currencies"));
+        // При попытке обновления таблицы из xml должна возникнуть ошибка
+        System.out.println("При попытке обновления таблицы из xml должна возникнуть ошибка");
+        try {
+            xmlDBService.update("currencies");
+        } catch (Exception e) {
+            System.out.println("Вызов xmlDBService.update(currencies) привёл к ошибке:");
+            System.out.println(e);
             System.out.println();
+        }
 
-            // Обновление таблицы с добавлением недостающих столбцов (внутри вызывается xmlDBService.getDDLChange)
-            xmlDBService.updateWithChange("currencies");
-            System.out.println("Таблица currencies после обновления данных:");
-            printTable(connection, "currencies");
+        // Запрос для возврата удаленной колонки rate из currencies
+        System.out.println("sql запрос для добавления 'новой' колонки:");
+        System.out.println(xmlDBService.getDDLChange("currencies"));
+        System.out.println();
 
+        // Обновление таблицы с добавлением недостающих столбцов (внутри вызывается xmlDBService.getDDLChange)
+        xmlDBService.updateWithChange("currencies");
+        System.out.println("Таблица currencies после обновления данных:");
+        printTable(connection, "currencies");
+    }
 
+    /**
+     * Фоновая синхронизация: --daemon [интервал в секундах] [файл статуса].
+     * Схема бд не удаляется, таблицы обновляются только при изменении фида; процесс работает до остановки (SIGTERM)
+     */
+    private static void runDaemon(String[] args) {
+        Duration interval = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 600);
+        Path statusFile = Path.of(args.length > 2 ? args[2] : "xml-db-status.json");
+        CountDownLatch stopped = new CountDownLatch(1);
+        try (HikariDataSource dataSource = DataSourceFactory.createDefault();
+             XmlDBService service = new XmlDBService(dataSource, new SyncOptions().parallelism(3));
+             SyncDaemon daemon = new SyncDaemon(service, interval, 0.1, statusFile)) {
+            Thread mainThread = Thread.currentThread();
+            // Завершение процесса ждёт остановки расписания и закрытия пула соединений
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                stopped.countDown();
+                try {
+                    mainThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            daemon.start();
+            System.out.println("Синхронизация каждые " + interval + ", статус в " + statusFile.toAbsolutePath());
+            stopped.await();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,413 @@
+package org.example.catalog;
+
+import groovy.xml.XmlSlurper;
+import groovy.xml.slurpersupport.GPathResult;
+import groovy.xml.slurpersupport.NodeChild;
+import org.example.feed.FeedSource;
+import org.example.schema.ColumnStats;
+import org.example.schema.TableSchema;
+import org.json.JSONObject;
+
+import javax.xml.XMLConstants;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Неизменяемый снимок одной версии фида: названия таблиц, схемы таблиц, статистика столбцов и строки.
+ * Всё вычисляется за один проход по xml, поэтому вывод схемы выполняется один раз на версию фида.
+ * В обычном режиме строки хранятся в памяти в компактном виде (CompactRows; дерево XmlSlurper после разбора не хранится),
+ * в потоковом режиме хранятся только названия таблиц и схемы, а строки читаются заново из копии документа,
+ * сделанной при создании снимка (кэш фида заменяется при получении новой версии).
+ * Частые параметры offer могут выноситься в отдельные колонки (ParamPromotion): значения этих колонок
+ * добавляются к строкам при проходе по ним
+ */
+public final class CatalogSnapshot {
+    private static final String PARAM_COLUMN = TableSchema.PARAM_COLUMN;
+    // Удаляет копии документа потоковых снимков, которые больше не используются
+    private static final Cleaner CLEANER = Cleaner.create();
+    private final String version;
+    private final List<String> tableNames;
+    private final Map<String, TableSchema> tableSchemas;
+    private final Map<String, Map<String, ColumnStats>> columnStats;
+    // null в потоковом режиме
+    private final Map<String, CompactRows> tableRows;
+    // Копия документа, из которой читаются строки в потоковом режиме (null в обычном режиме)
+    private final Path body;
+    // таблица -> колонка параметра -> название параметра (null, если параметра нет в этой версии фида)
+    private final Map<String, Map<String, String>> promotedParams;
+    // Время вывода схем и статистики столбцов по накопленным за проход данным
+    private final long schemaNanos;
+
+    private CatalogSnapshot(String version, Builder builder, Path body) {
+        long start = System.nanoTime();
+        this.version = version;
+        this.tableNames = List.copyOf(builder.tableNames);
+        Map<String, Map<String, ColumnStats>> stats = new HashMap<>();
+        Map<String, Map<String, String>> promoted = new HashMap<>();
+        builder.collectors.forEach((tableName, collectors) -> {
+            long rowCount = builder.rowCounts.get(tableName);
+            Map<String, ColumnStats> tableStats = new TreeMap<>();
+            collectors.forEach((column, collector) -> tableStats.put(column, collector.toStats(rowCount)));
+            if (builder.promotion != null && tableStats.containsKey(PARAM_COLUMN)) {
+                Map<String, ColumnStats> paramStats = new HashMap<>();
+                builder.paramCollectors.getOrDefault(tableName, Map.of())
+                        .forEach((paramName, collector) -> paramStats.put(paramName, collector.toStats(rowCount)));
+                Map<String, String> columns = builder.promotion.select(tableName, paramStats, rowCount);
+                columns.forEach((column, paramName) -> tableStats.putIfAbsent(column, paramName != null
+                        ? paramStats.get(paramName)
+                        : builder.promotion.emptyStats(tableName, column, rowCount)));
+                // Колонка из xml с таким же названием не заменяется параметром
+                columns.keySet().removeIf(column -> collectors.containsKey(column));
+                if (!columns.isEmpty()) promoted.put(tableName, columns);
+            }
+            stats.put(tableName, Collections.unmodifiableMap(tableStats));
+        });
+        this.promotedParams = promoted;
+        this.columnStats = Collections.unmodifiableMap(stats);
+        Map<String, TableSchema> schemas = new HashMap<>();
+        stats.forEach((tableName, tableStats) -> schemas.put(tableName, TableSchema.infer(tableName, tableStats)));
+        this.tableSchemas = Collections.unmodifiableMap(schemas);
+        if (builder.tableRows != null) builder.tableRows.values().forEach(CompactRows::trim);
+        this.tableRows = builder.tableRows == null ? null : Collections.unmodifiableMap(builder.tableRows);
+        this.body = body;
+        if (body != null) CLEANER.register(this, () -> delete(body));
+        this.schemaNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Разбирает последнюю полученную версию фида
+     * @param feedSource источник xml
+     * @param streaming потоковый режим: строки не хранятся в памяти
+     * @param exactDistinctLimit количество различных значений столбца, до которого статистика считается точно
+     * @return снимок фида
+     */
+    public static CatalogSnapshot load(FeedSource feedSource, boolean streaming, int exactDistinctLimit) throws Exception {
+        return load(feedSource, streaming, exactDistinctLimit, 1);
+    }
+
+    /**
+     * Разбирает последнюю полученную версию фида без выноса параметров в колонки
+     */
+    public static CatalogSnapshot load(FeedSource feedSource, boolean streaming, int exactDistinctLimit,
+                                       int parseParallelism) throws Exception {
+        return load(feedSource, streaming, exactDistinctLimit, parseParallelism, null);
+    }
+
+    /**
+     * Разбирает последнюю полученную версию фида.
+     * Если фид хранится в локальном файле и parseParallelism больше 1, большой файл разбирается
+     * частями параллельно (ChunkedYmlParser), результат совпадает с последовательным разбором.
+     * В потоковом режиме документ сначала копируется во временный файл (удаляется, когда снимок больше не используется),
+     * и все проходы по строкам читают эту копию
+     * @param feedSource источник xml
+     * @param streaming потоковый режим: строки не хранятся в памяти
+     * @param exactDistinctLimit количество различных значений столбца, до которого статистика считается точно
+     * @param parseParallelism количество потоков разбора
+     * @param promotion вынос частых параметров в колонки, null если параметры хранятся только в jsonb колонке param
+     * @return снимок фида
+     */
+    public static CatalogSnapshot load(FeedSource feedSource, boolean streaming, int exactDistinctLimit,
+                                       int parseParallelism, ParamPromotion promotion) throws Exception {
+        String version = feedSource.version();
+        Path body = streaming ? pin(feedSource, version) : null;
+        try {
+            Path localPath = body != null ? body : feedSource.localPath();
+            Builder builder = parseParallelism > 1 && localPath != null
+                    ? readChunked(localPath, parseParallelism, !streaming, exactDistinctLimit, promotion)
+                    : null;
+            if (builder == null) {
+                builder = new Builder(!streaming, exactDistinctLimit, promotion);
+                try (InputStream xmlStream = body != null ? Files.newInputStream(body) : feedSource.open()) {
+                    if (streaming) YmlStreamParser.parse(xmlStream, builder);
+                    else readSlurper(xmlStream, builder);
+                }
+            }
+            return new CatalogSnapshot(version, builder, body);
+        } catch (Exception e) {
+            if (body != null) delete(body);
+            throw e;
+        }
+    }
+
+    /**
+     * Копирует содержимое версии фида во временный файл, чтобы строки потокового снимка
+     * не читались из следующей версии
+     * @throws IOException если за время копирования источник получил другую версию фида
+     */
+    private static Path pin(FeedSource feedSource, String version) throws IOException {
+        Path copy = Files.createTempFile("xml-feed-snapshot", ".xml");
+        try {
+            try (InputStream xmlStream = feedSource.open()) {
+                Files.copy(xmlStream, copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!Objects.equals(feedSource.version(), version)) {
+                throw new IOException("Feed version changed from " + version + " to " + feedSource.version()
+                        + " while the snapshot was loaded");
+            }
+        } catch (IOException | RuntimeException e) {
+            delete(copy);
+            throw e;
+        }
+        return copy;
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Файл остаётся во временном каталоге; ошибка удаления не должна заменять ошибку загрузки
+        }
+    }
+
+    /**
+     * @return версия фида, из которой построен снимок
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return время вывода схем и статистики столбцов в наносекундах
+     * (накопление значений столбцов выполняется при разборе и входит во время разбора)
+     */
+    public long getSchemaNanos() {
+        return schemaNanos;
+    }
+
+    /**
+     * @return названия таблиц из xml в порядке следования в документе
+     */
+    public List<String> getTableNames() {
+        return tableNames;
+    }
+
+    /**
+     * @param tableName название таблицы
+     * @return схема таблицы, выведенная из xml (без колонок, если таблицы нет в xml)
+     */
+    public TableSchema getTableSchema(String tableName) {
+        TableSchema tableSchema = tableSchemas.get(tableName);
+        return tableSchema != null ? tableSchema : TableSchema.infer(tableName, Map.of());
+    }
+
+    /**
+     * @param tableName название таблицы
+     * @return статистика столбцов таблицы по данным фида (пустая, если таблицы нет в xml)
+     */
+    public Map<String, ColumnStats> getColumnStats(String tableName) {
+        return columnStats.getOrDefault(tableName, Map.of());
+    }
+
+    /**
+     * Передаёт все строки таблицы в listener
+     * @param tableName название таблицы
+     * @param listener получатель строк
+     */
+    public void forEachRow(String tableName, RowListener listener) throws Exception {
+        Map<String, String> columns = promotedParams.get(tableName);
+        if (columns != null) listener = withParamColumns(columns, listener);
+        if (tableRows == null) {
+            try (InputStream xmlStream = Files.newInputStream(body)) {
+                YmlStreamParser.parse(xmlStream, tableName, listener);
+            }
+            return;
+        }
+        CompactRows rows = tableRows.get(tableName);
+        if (rows != null) rows.forEach(tableName, listener);
+    }
+
+    /**
+     * @param tableName название таблицы
+     * @return колонки, в которые вынесены параметры: колонка -> название параметра
+     */
+    public Map<String, String> getPromotedParams(String tableName) {
+        return Collections.unmodifiableMap(promotedParams.getOrDefault(tableName, Map.of()));
+    }
+
+    /**
+     * Добавляет к каждой строке значения колонок параметров из jsonb колонки param (строки снимка не меняются)
+     */
+    private static RowListener withParamColumns(Map<String, String> columns, RowListener listener) {
+        return new RowListener() {
+            @Override
+            public void table(String tableName) throws Exception {
+                listener.table(tableName);
+            }
+
+            @Override
+            public void row(String tableName, Map<String, String> row) throws Exception {
+                String param = row.get(PARAM_COLUMN);
+                if (param == null) {
+                    listener.row(tableName, row);
+                    return;
+                }
+                JSONObject params = new JSONObject(param);
+                Map<String, String> values = new HashMap<>(row);
+                columns.forEach((column, paramName) -> {
+                    if (paramName != null && params.has(paramName)) values.put(column, params.getString(paramName));
+                });
+                listener.row(tableName, values);
+            }
+        };
+    }
+
+    /**
+     * Параллельный разбор локального файла частями, результаты частей объединяются в порядке документа
+     * @return накопленные данные, null если файл нужно разобрать последовательно
+     */
+    private static Builder readChunked(Path file, int parallelism, boolean keepRows, int exactDistinctLimit,
+                                       ParamPromotion promotion) throws Exception {
+        List<Builder> parts;
+        try {
+            parts = ChunkedYmlParser.parse(file, parallelism, () -> new Builder(keepRows, exactDistinctLimit, promotion));
+        } catch (ChunkedYmlParser.ChunkParseException e) {
+            // Неудачное разбиение (граница offer внутри CDATA/комментария) или ошибка в xml -
+            // последовательный разбор даст точный результат или точную ошибку
+            return null;
+        }
+        if (parts == null) return null;
+        Builder builder = parts.get(0);
+        for (Builder part : parts.subList(1, parts.size())) builder.merge(part);
+        return builder;
+    }
+
+    /**
+     * Разбор xml через XmlSlurper и обход дерева с передачей строк в listener
+     */
+    private static void readSlurper(InputStream xmlStream, RowListener listener) throws Exception {
+        XmlSlurper xmlSlurper = new XmlSlurper(false, true);
+        xmlSlurper.setFeature("http://apache.org/xml/features/disallow-doctype-decl", false);
+        xmlSlurper.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "all");
+        xmlSlurper.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "all");
+        xmlSlurper.setEntityResolver((publicId, systemId) ->
+                new org.xml.sax.InputSource(new java.io.StringReader(""))
+        );
+        GPathResult yml_catalog = xmlSlurper.parse(xmlStream);
+
+        GPathResult shop = (GPathResult)yml_catalog.getProperty("shop");
+        // Итерируемся по всем элементам shop
+        for (Object node: shop.children()) {
+            GPathResult child = (GPathResult) node;
+            // Если внутри элемента присутствуют другие элементы, считаем, что это таблица
+            if (child.children().isEmpty()) continue;
+            listener.table(child.name());
+            for (Object row: child.children()) {
+                listener.row(child.name(), toRow((NodeChild)row));
+            }
+        }
+    }
+
+    /**
+     * Преобразует запись xml в значения строки таблицы
+     * @param rowNodeChild запись xml
+     * @return значения строки (ключи в нижнем регистре)
+     */
+    private static Map<String, String> toRow(NodeChild rowNodeChild) {
+        @SuppressWarnings("unchecked")
+        Map<String, String> originalAttrs = (Map<String, String>) rowNodeChild.attributes();
+
+        Map<String, String> valuesMap = new HashMap<>();
+        originalAttrs.forEach((name, value) -> valuesMap.put(name.toLowerCase(), value));
+        Map<String, String> paramMap = null;
+
+
+        for (Object child: rowNodeChild.children()) {
+            NodeChild column = (NodeChild)child;
+            String columnName = column.name().toLowerCase();
+
+            // Для полей "param" создаётся отдельный HashMap, который затем приводится к формату jsonb
+            if (Objects.equals(columnName, "param")) {
+                String paramName = (String) column.attributes().get("name");
+                if (paramMap == null) paramMap = new HashMap<>();
+                paramMap.put(paramName, column.text());
+            } else {
+                valuesMap.put(columnName, column.text());
+            }
+        }
+
+        if (paramMap != null) valuesMap.put("param", new JSONObject(paramMap).toString());
+
+        // Для данных в строчках таблицы без имени (как в categories) добавляется название колонки "data"
+        if (rowNodeChild.children().isEmpty() & !Objects.equals(rowNodeChild.text(), "")) {
+            valuesMap.put("data", rowNodeChild.text());
+        }
+        return valuesMap;
+    }
+
+    /**
+     * Накопление названий таблиц, статистики столбцов и строк за один проход по xml
+     */
+    private static final class Builder implements RowListener {
+        private final List<String> tableNames = new ArrayList<>();
+        private final Map<String, Long> rowCounts = new HashMap<>();
+        private final Map<String, Map<String, ColumnStats.Collector>> collectors = new HashMap<>();
+        private final Map<String, CompactRows> tableRows;
+        private final int exactDistinctLimit;
+        private final ParamPromotion promotion;
+        // Статистика значений по названиям параметров, собирается только при выносе параметров в колонки
+        private final Map<String, Map<String, ColumnStats.Collector>> paramCollectors = new HashMap<>();
+
+        Builder(boolean keepRows, int exactDistinctLimit, ParamPromotion promotion) {
+            this.tableRows = keepRows ? new HashMap<>() : null;
+            this.exactDistinctLimit = exactDistinctLimit;
+            this.promotion = promotion;
+        }
+
+        @Override
+        public void table(String tableName) {
+            tableNames.add(tableName);
+        }
+
+        @Override
+        public void row(String tableName, Map<String, String> row) {
+            rowCounts.merge(tableName, 1L, Long::sum);
+            Map<String, ColumnStats.Collector> tableCollectors = collectors.computeIfAbsent(tableName, k -> new HashMap<>());
+            row.forEach((column, value) ->
+                    tableCollectors.computeIfAbsent(column, k -> new ColumnStats.Collector(exactDistinctLimit)).add(value));
+            String param = row.get(PARAM_COLUMN);
+            if (promotion != null && param != null) {
+                Map<String, ColumnStats.Collector> tableParams = paramCollectors.computeIfAbsent(tableName, k -> new HashMap<>());
+                JSONObject params = new JSONObject(param);
+                for (String paramName : params.keySet()) {
+                    tableParams.computeIfAbsent(paramName, k -> new ColumnStats.Collector(exactDistinctLimit))
+                            .add(params.getString(paramName));
+                }
+            }
+            if (tableRows != null) tableRows.computeIfAbsent(tableName, k -> new CompactRows()).add(row);
+        }
+
+        /**
+         * Добавляет данные следующей части документа
+         */
+        void merge(Builder other) {
+            for (String tableName : other.tableNames) {
+                if (!tableNames.contains(tableName)) tableNames.add(tableName);
+            }
+            other.rowCounts.forEach((tableName, count) -> rowCounts.merge(tableName, count, Long::sum));
+            mergeCollectors(collectors, other.collectors);
+            mergeCollectors(paramCollectors, other.paramCollectors);
+            if (tableRows != null) {
+                other.tableRows.forEach((tableName, rows) -> {
+                    CompactRows current = tableRows.putIfAbsent(tableName, rows);
+                    if (current != null) current.addAll(rows);
+                });
+            }
+        }
+
+        private static void mergeCollectors(Map<String, Map<String, ColumnStats.Collector>> target,
+                                            Map<String, Map<String, ColumnStats.Collector>> source) {
+            source.forEach((tableName, otherCollectors) -> {
+                Map<String, ColumnStats.Collector> tableCollectors = target.computeIfAbsent(tableName, k -> new HashMap<>());
+                otherCollectors.forEach((column, collector) -> {
+                    ColumnStats.Collector current = tableCollectors.putIfAbsent(column, collector);
+                    if (current != null) current.merge(collector);
+                });
+            });
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.example.catalog;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Параллельный разбор большого локального файла yml_catalog.
+ * Файл отображается в память, содержимое offers делится на диапазоны байт по границам элементов offer,
+ * диапазоны разбираются StAX парсером в ForkJoinPool. Остальная часть документа (currencies, categories, ...)
+ * разбирается двумя небольшими документами: до offers и после offers.
+ * Каждая часть начинается с начала исходного документа до открывающего тега shop включительно
+ * (объявление xml, DOCTYPE, yml_catalog с атрибутами и объявлениями пространств имён), поэтому разбирается так же, как весь документ.
+ * Каждая часть передаёт строки в свой RowListener; результаты возвращаются в порядке документа и объединяются вызывающей стороной
+ */
+public final class ChunkedYmlParser {
+    // Файлы меньше этого размера разбираются последовательно: выигрыш меньше затрат на разбиение
+    public static final long MIN_FILE_SIZE = 8L * 1024 * 1024;
+    // Минимальный размер диапазона offers, разбираемого одной задачей
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final byte[] ROOT_OPEN = ascii("<yml_catalog");
+    private static final byte[] SHOP_OPEN = ascii("<shop");
+    private static final byte[] OFFERS_OPEN = ascii("<offers");
+    private static final byte[] OFFERS_CLOSE = ascii("</offers");
+    private static final byte[] OFFER_OPEN = ascii("<offer");
+
+    private ChunkedYmlParser() {}
+
+    /**
+     * Разбирает файл частями
+     * @param file файл с xml (кодировка, совместимая с ASCII)
+     * @param parallelism количество потоков
+     * @param listenerFactory создаёт получателя строк для каждой части
+     * @return получатели строк частей в порядке документа; null, если файл нельзя или невыгодно делить
+     * (маленький файл, нет offers, кодировка UTF-16) - тогда файл нужно разобрать последовательно
+     * @throws ChunkParseException если часть документа не разобрана (в том числе из-за неудачного разбиения) -
+     * тогда файл нужно разобрать последовательно, чтобы получить точную ошибку
+     */
+    public static <L extends RowListener> List<L> parse(Path file, int parallelism, Supplier<L> listenerFactory) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Отображение одним буфером ограничено 2 ГБ
+            if (parallelism < 2 || size < MIN_FILE_SIZE || size > Integer.MAX_VALUE) return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            byte[] prolog = prolog(buffer);
+            if (prolog == null) return null;
+            int offersOpen = indexOfTag(buffer, OFFERS_OPEN, prolog.length, buffer.limit());
+            if (offersOpen < 0) return null;
+            int contentStart = indexOf(buffer, (byte) '>', offersOpen) + 1;
+            // <offers/> - разбивать нечего
+            if (contentStart == 0 || buffer.get(contentStart - 2) == '/') return null;
+            int contentEnd = lastIndexOf(buffer, OFFERS_CLOSE, contentStart);
+            if (contentEnd < 0) return null;
+            int closeEnd = indexOf(buffer, (byte) '>', contentEnd) + 1;
+            // Начало документа до открывающего тега shop включительно и открывающий тег offers
+            int rootOpen = indexOfTag(buffer, ROOT_OPEN, prolog.length, offersOpen);
+            int shopOpen = rootOpen < 0 ? -1 : indexOfTag(buffer, SHOP_OPEN, rootOpen, offersOpen);
+            if (shopOpen < 0) return null;
+            int rootEnd = indexOf(buffer, (byte) '>', rootOpen) + 1;
+            byte[] shopHeader = concat(slice(buffer, 0, rootEnd), slice(buffer, shopOpen, indexOf(buffer, (byte) '>', shopOpen) + 1));
+            byte[] offersHeader = concat(shopHeader, slice(buffer, offersOpen, contentStart));
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                int chunkSize = Math.max(MIN_CHUNK_SIZE, (contentEnd - contentStart) / (parallelism * 4));
+                List<L> offerParts;
+                try {
+                    offerParts = pool.submit(new ChunkTask<>(buffer, offersHeader, contentStart, contentEnd, chunkSize, listenerFactory)).get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof ChunkParseException cause ? cause : new ChunkParseException(e);
+                }
+
+                List<L> parts = new ArrayList<>();
+                L before = listenerFactory.get();
+                L after = listenerFactory.get();
+                try {
+                    // Часть документа до offers, с закрытыми shop и yml_catalog
+                    YmlStreamParser.parse(stream(bytes(), buffer.slice(0, offersOpen), ascii("</shop></yml_catalog>")), before);
+                    // Часть документа после offers, с открытыми yml_catalog и shop
+                    YmlStreamParser.parse(stream(shopHeader,
+                            buffer.slice(closeEnd, buffer.limit() - closeEnd), bytes()), after);
+                } catch (XMLStreamException e) {
+                    throw new ChunkParseException(e);
+                }
+                parts.add(before);
+                parts.addAll(offerParts);
+                parts.add(after);
+                return parts;
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Разбор диапазона offers: большой диапазон делится пополам по границе offer
+     */
+    private static final class ChunkTask<L extends RowListener> extends RecursiveTask<List<L>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer buffer;
+        // Начало документа до открывающего тега offers включительно
+        private final byte[] header;
+        private final int start;
+        private final int end;
+        private final int chunkSize;
+        private final Supplier<L> listenerFactory;
+
+        ChunkTask(ByteBuffer buffer, byte[] header, int start, int end, int chunkSize, Supplier<L> listenerFactory) {
+            this.buffer = buffer;
+            this.header = header;
+            this.start = start;
+            this.end = end;
+            this.chunkSize = chunkSize;
+            this.listenerFactory = listenerFactory;
+        }
+
+        @Override
+        protected List<L> compute() {
+            if (end - start > chunkSize) {
+                int middle = indexOfTag(buffer, OFFER_OPEN, start + (end - start) / 2, end);
+                if (middle > start) {
+                    ChunkTask<L> left = new ChunkTask<>(buffer, header, start, middle, chunkSize, listenerFactory);
+                    ChunkTask<L> right = new ChunkTask<>(buffer, header, middle, end, chunkSize, listenerFactory);
+                    left.fork();
+                    List<L> result = new ArrayList<>(right.compute());
+                    result.addAll(0, left.join());
+                    return result;
+                }
+            }
+            L listener = listenerFactory.get();
+            try {
+                YmlStreamParser.parse(stream(header, buffer.slice(start, end - start), ascii("</offers></shop></yml_catalog>")), listener);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ChunkParseException(e);
+            }
+            return Collections.singletonList(listener);
+        }
+    }
+
+    /**
+     * Ошибка разбора диапазона (например, граница offer внутри CDATA или комментария)
+     */
+    public static final class ChunkParseException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkParseException(Exception cause) {
+            super("Failed to parse a chunk of offers", cause);
+        }
+    }
+
+    /**
+     * Объявление xml из начала файла (для сохранения кодировки в частях документа)
+     * @return байты объявления (пустой массив, если объявления нет), null для кодировок, несовместимых с ASCII
+     */
+    private static byte[] prolog(ByteBuffer buffer) {
+        if (buffer.limit() >= 2 && (buffer.get(0) == (byte) 0xFE || buffer.get(0) == (byte) 0xFF || buffer.get(0) == 0)) return null;
+        int start = buffer.limit() >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB ? 3 : 0;
+        if (!startsWith(buffer, ascii("<?xml"), start)) return bytes();
+        int end = indexOf(buffer, (byte) '>', start) + 1;
+        if (end == 0) return null;
+        byte[] prolog = new byte[end];
+        buffer.get(0, prolog);
+        if (new String(prolog, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT).contains("utf-16")) return null;
+        return prolog;
+    }
+
+    /**
+     * Ищет открывающий тег name (за названием следует пробельный символ, '>' или '/')
+     */
+    private static int indexOfTag(ByteBuffer buffer, byte[] name, int from, int to) {
+        for (int i = from; i + name.length < to; i++) {
+            if (buffer.get(i) == '<' && startsWith(buffer, name, i)) {
+                byte next = buffer.get(i + name.length);
+                if (next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\n' || next == '\r') return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int from) {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == value) return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buffer, byte[] value, int from) {
+        for (int i = buffer.limit() - value.length; i >= from; i--) {
+            if (startsWith(buffer, value, i)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] value, int position) {
+        if (position + value.length > buffer.limit()) return false;
+        for (int i = 0; i < value.length; i++) {
+            if (buffer.get(position + i) != value[i]) return false;
+        }
+        return true;
+    }
+
+    private static InputStream stream(byte[] prefix, ByteBuffer body, byte[] suffix) {
+        return new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(prefix), new ByteBufferInputStream(body), new ByteArrayInputStream(suffix))));
+    }
+
+    private static byte[] slice(ByteBuffer buffer, int start, int end) {
+        byte[] result = new byte[end - start];
+        buffer.get(start, result);
+        return result;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes() {
+        return new byte[0];
+    }
+
+    /**
+     * Чтение из буфера без копирования в кучу
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.example.catalog;
+
+import java.util.*;
+
+/**
+ * Строки одной таблицы в памяти: строка хранится массивом значений по порядковому номеру колонки,
+ * а не HashMap с названиями колонок. Значения колонок с небольшим количеством различных значений
+ * (currencyId, categoryId, vendor, ...) заносятся в словарь колонки, поэтому одинаковые значения
+ * во всех строках - один экземпляр String.
+ * При проходе по строкам получатель видит одно переиспользуемое представление Map, значения которого
+ * меняются от строки к строке: сохранять строку после вызова RowListener.row нельзя (только копию)
+ */
+final class CompactRows {
+    // Количество различных значений колонки, после которого значения колонки больше не заносятся в словарь
+    private static final int DICTIONARY_LIMIT = 4096;
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<String> columns = new ArrayList<>();
+    // Словари значений по номеру колонки; null - у колонки слишком много различных значений
+    private List<Map<String, String>> dictionaries = new ArrayList<>();
+    // Массив строки короче списка колонок, если колонка появилась после этой строки
+    private final ArrayList<String[]> rows = new ArrayList<>();
+
+    /**
+     * Добавляет строку (значения копируются, map можно переиспользовать)
+     */
+    void add(Map<String, String> row) {
+        for (String column : row.keySet()) ordinal(column);
+        String[] values = new String[columns.size()];
+        row.forEach((column, value) -> {
+            int ordinal = ordinals.get(column);
+            values[ordinal] = intern(ordinal, value);
+        });
+        rows.add(values);
+    }
+
+    /**
+     * Добавляет строки следующей части документа
+     */
+    void addAll(CompactRows other) {
+        int[] mapping = new int[other.columns.size()];
+        for (int i = 0; i < mapping.length; i++) mapping[i] = ordinal(other.columns.get(i));
+        rows.ensureCapacity(rows.size() + other.rows.size());
+        for (String[] otherValues : other.rows) {
+            String[] values = new String[columns.size()];
+            for (int i = 0; i < otherValues.length; i++) {
+                if (otherValues[i] != null) values[mapping[i]] = intern(mapping[i], otherValues[i]);
+            }
+            rows.add(values);
+        }
+    }
+
+    /**
+     * Освобождает словари после разбора: новые строки больше не добавляются
+     */
+    void trim() {
+        dictionaries = null;
+        rows.trimToSize();
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * Передаёт строки в listener через одно представление на весь проход
+     */
+    void forEach(String tableName, RowListener listener) throws Exception {
+        RowView view = new RowView();
+        for (String[] values : rows) {
+            view.values = values;
+            listener.row(tableName, view);
+        }
+    }
+
+    private int ordinal(String column) {
+        Integer ordinal = ordinals.get(column);
+        if (ordinal != null) return ordinal;
+        ordinals.put(column, columns.size());
+        columns.add(column);
+        if (dictionaries != null) dictionaries.add(new HashMap<>());
+        return columns.size() - 1;
+    }
+
+    private String intern(int ordinal, String value) {
+        if (value == null || dictionaries == null) return value;
+        Map<String, String> dictionary = dictionaries.get(ordinal);
+        if (dictionary == null) return value;
+        String existing = dictionary.putIfAbsent(value, value);
+        if (existing != null) return existing;
+        // Уникальные значения (id, name, description) не дают экономии, словарь только занимал бы память
+        if (dictionary.size() > DICTIONARY_LIMIT) dictionaries.set(ordinal, null);
+        return value;
+    }
+
+    /**
+     * Строка как Map только для чтения; колонки без значения (null) в строке отсутствуют, как и в строке из разбора
+     */
+    private final class RowView extends AbstractMap<String, String> {
+        private String[] values;
+
+        @Override
+        public String get(Object key) {
+            Integer ordinal = ordinals.get(key);
+            return ordinal != null && ordinal < values.length ? values[ordinal] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return keySet().size();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            // Без объекта Entry на каждую колонку (названия колонок нужны для отпечатка каждой строки)
+            return new ColumnSet<>(values) {
+                @Override
+                String element(int ordinal) {
+                    return columns.get(ordinal);
+                }
+            };
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            String[] rowValues = values;
+            return new ColumnSet<>(values) {
+                @Override
+                Entry<String, String> element(int ordinal) {
+                    return new SimpleImmutableEntry<>(columns.get(ordinal), rowValues[ordinal]);
+                }
+            };
+        }
+    }
+
+    /**
+     * Множество по колонкам строки, у которых есть значение
+     */
+    private abstract static class ColumnSet<E> extends AbstractSet<E> {
+        private final String[] values;
+
+        ColumnSet(String[] values) {
+            this.values = values;
+        }
+
+        abstract E element(int ordinal);
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<>() {
+                private int next = skipNulls(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next < values.length;
+                }
+
+                @Override
+                public E next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    E element = element(next);
+                    next = skipNulls(next + 1);
+                    return element;
+                }
+
+                private int skipNulls(int from) {
+                    while (from < values.length && values[from] == null) from++;
+                    return from;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (String value : values) if (value != null) size++;
+            return size;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.catalog;
+
+import org.example.schema.ColumnStats;
+import org.example.schema.ColumnType;
+import org.example.schema.TableSchema;
+
+import java.util.*;
+
+/**
+ * Вынос частых параметров offer (param) в отдельные колонки.
+ * При разборе фида для каждого названия параметра собирается статистика значений; параметры,
+ * которые есть не меньше чем в minFrequency строк таблицы, становятся колонками param_&lt;название&gt;
+ * (не больше maxColumns самых частых). Колонка, уже созданная в бд, остаётся колонкой и при снижении частоты,
+ * чтобы схема таблицы только расширялась. Значения параметров по-прежнему хранятся и в jsonb колонке param
+ */
+public final class ParamPromotion {
+    public static final String COLUMN_PREFIX = TableSchema.PARAM_COLUMN_PREFIX;
+    // Запас до 63 байт названия индекса с названием таблицы
+    private static final int MAX_COLUMN_LENGTH = 40;
+    // Транслитерация русских букв а..я в названиях параметров
+    private static final String[] CYRILLIC = {"a", "b", "v", "g", "d", "e", "zh", "z", "i", "y", "k", "l", "m", "n", "o",
+            "p", "r", "s", "t", "u", "f", "kh", "ts", "ch", "sh", "shch", "", "y", "", "e", "yu", "ya"};
+
+    private final int maxColumns;
+    private final double minFrequency;
+    // таблица -> колонка параметра в бд -> тип колонки в бд
+    private final Map<String, Map<String, String>> existingColumns;
+
+    /**
+     * @param maxColumns максимальное количество новых колонок параметров в таблице
+     * @param minFrequency минимальная доля строк таблицы с параметром (0.5 - параметр есть в половине строк)
+     */
+    public ParamPromotion(int maxColumns, double minFrequency) {
+        this(maxColumns, minFrequency, Map.of());
+    }
+
+    private ParamPromotion(int maxColumns, double minFrequency, Map<String, Map<String, String>> existingColumns) {
+        if (maxColumns < 0) throw new IllegalArgumentException("maxColumns must not be negative");
+        if (minFrequency < 0 || minFrequency > 1) throw new IllegalArgumentException("minFrequency must be in [0, 1]");
+        this.maxColumns = maxColumns;
+        this.minFrequency = minFrequency;
+        this.existingColumns = existingColumns;
+    }
+
+    /**
+     * @param existingColumns колонки параметров, уже созданные в бд: таблица -> колонка -> тип колонки
+     * @return настройки, в которых эти колонки сохраняются независимо от частоты параметров
+     */
+    public ParamPromotion withExistingColumns(Map<String, Map<String, String>> existingColumns) {
+        return new ParamPromotion(maxColumns, minFrequency, existingColumns);
+    }
+
+    public int getMaxColumns() {
+        return maxColumns;
+    }
+
+    public double getMinFrequency() {
+        return minFrequency;
+    }
+
+    /**
+     * @param paramName название параметра из xml
+     * @return название колонки: param_ и название в нижнем регистре, русские буквы записаны латиницей,
+     * остальные символы кроме латинских букв и цифр заменены на _ (название без таких символов заменяется хешем)
+     */
+    public static String columnName(String paramName) {
+        StringBuilder name = new StringBuilder(COLUMN_PREFIX);
+        for (char c : paramName.toLowerCase(Locale.ROOT).toCharArray()) {
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                name.append(c);
+            } else if (c >= 'а' && c <= 'я') {
+                name.append(CYRILLIC[c - 'а']);
+            } else if (c == 'ё') {
+                name.append("e");
+            } else if (name.length() > COLUMN_PREFIX.length() && name.charAt(name.length() - 1) != '_') {
+                // Подряд идущие заменённые символы дают один _
+                name.append('_');
+            }
+        }
+        if (name.length() == COLUMN_PREFIX.length()) return COLUMN_PREFIX + Integer.toHexString(paramName.hashCode());
+        if (name.length() > MAX_COLUMN_LENGTH) name.setLength(MAX_COLUMN_LENGTH);
+        // _ в конце - от заменённых символов в конце названия или на месте обрезки
+        if (name.charAt(name.length() - 1) == '_') name.setLength(name.length() - 1);
+        return name.toString();
+    }
+
+    /**
+     * Выбирает колонки параметров таблицы
+     * @param tableName название таблицы
+     * @param paramStats статистика значений по названиям параметров
+     * @param rowCount количество строк таблицы
+     * @return колонка -> название параметра (null для колонки из бд, параметра которой нет в этой версии фида)
+     */
+    Map<String, String> select(String tableName, Map<String, ColumnStats> paramStats, long rowCount) {
+        Map<String, String> existing = existingColumns.getOrDefault(tableName, Map.of());
+        Map<String, String> result = new TreeMap<>();
+        for (String column : existing.keySet()) result.put(column, null);
+
+        // Параметры в порядке убывания частоты, при равной частоте - по названию, чтобы выбор не зависел от порядка в xml
+        List<Map.Entry<String, ColumnStats>> byFrequency = new ArrayList<>(paramStats.entrySet());
+        byFrequency.sort(Comparator.<Map.Entry<String, ColumnStats>>comparingLong(e -> e.getValue().nullCount())
+                .thenComparing(Map.Entry::getKey));
+        int added = 0;
+        for (Map.Entry<String, ColumnStats> entry : byFrequency) {
+            String column = columnName(entry.getKey());
+            if (existing.containsKey(column)) {
+                // Первый (самый частый) параметр с этим названием колонки
+                if (result.get(column) == null) result.put(column, entry.getKey());
+                continue;
+            }
+            long count = rowCount - entry.getValue().nullCount();
+            if (added >= maxColumns || count == 0 || count < minFrequency * rowCount || result.containsKey(column)) continue;
+            result.put(column, entry.getKey());
+            added++;
+        }
+        return result;
+    }
+
+    /**
+     * Статистика колонки из бд, параметра которой нет в этой версии фида: все значения пустые, тип как в бд
+     */
+    ColumnStats emptyStats(String tableName, String column, long rowCount) {
+        String type = existingColumns.getOrDefault(tableName, Map.of()).get(column);
+        return new ColumnStats(rowCount, rowCount, 0, 0, true, type != null ? ColumnType.of(type) : null);
+    }
+}
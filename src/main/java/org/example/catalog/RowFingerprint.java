@@ -0,0 +1,55 @@
+package org.example.catalog;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Отпечаток содержимого строки: не зависит от порядка атрибутов и тегов в xml,
+ * поэтому одинаковые строки из разных версий фида дают одинаковый отпечаток
+ */
+public final class RowFingerprint {
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    // Буфер названий колонок строки для сортировки, свой у каждого потока
+    private static final ThreadLocal<List<String>> KEYS = ThreadLocal.withInitial(ArrayList::new);
+    // Названия колонок в UTF-8: колонок немного, а кодировать их заново для каждой строки незачем
+    private static final Map<String, byte[]> KEY_BYTES = new ConcurrentHashMap<>();
+
+    private RowFingerprint() {}
+
+    /**
+     * Возвращает отпечаток строки (первые 8 байт SHA-256 от отсортированных пар колонка/значение)
+     * @param row значения строки
+     * @return отпечаток строки
+     */
+    public static long of(Map<String, String> row) {
+        MessageDigest digest = DIGEST.get();
+        List<String> keys = KEYS.get();
+        keys.clear();
+        for (String key : row.keySet()) keys.add(key);
+        // Порядок как у TreeMap: отпечатки, сохранённые в бд, не меняются
+        keys.sort(null);
+        for (String key : keys) {
+            String value = row.get(key);
+            if (value == null) continue;
+            digest.update(KEY_BYTES.computeIfAbsent(key, k -> k.getBytes(StandardCharsets.UTF_8)));
+            digest.update((byte) 0);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 1);
+        }
+        byte[] hash = digest.digest();
+        long result = 0;
+        for (int i = 0; i < Long.BYTES; i++) result = (result << 8) | (hash[i] & 0xFF);
+        return result;
+    }
+}
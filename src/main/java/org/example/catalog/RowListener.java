@@ -0,0 +1,23 @@
+package org.example.catalog;
+
+import java.util.Map;
+
+/**
+ * Получатель строк таблиц, прочитанных из xml
+ */
+public interface RowListener {
+    /**
+     * Вызывается перед первой строкой таблицы
+     * @param tableName название таблицы
+     */
+    default void table(String tableName) throws Exception {}
+
+    /**
+     * Вызывается для каждой строки таблицы
+     * @param tableName название таблицы
+     * @param row значения строки (ключи в нижнем регистре, param уже приведён к json).
+     *            Строка действительна только во время вызова: при проходе по строкам снимка это одно
+     *            переиспользуемое представление, поэтому для хранения нужна копия
+     */
+    void row(String tableName, Map<String, String> row) throws Exception;
+}
@@ -0,0 +1,13 @@
+package org.example.catalog;
+
+/**
+ * Источник строк одной таблицы из xml
+ */
+@FunctionalInterface
+public interface RowSource {
+    /**
+     * Передаёт все строки таблицы в listener
+     * @param listener получатель строк
+     */
+    void forEachRow(RowListener listener) throws Exception;
+}
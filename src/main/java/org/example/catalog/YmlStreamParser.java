@@ -0,0 +1,197 @@
+package org.example.catalog;
+
+import org.json.JSONObject;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Потоковый (StAX) разбор yml_catalog.
+ * В отличие от XmlSlurper не строит дерево документа: строки таблиц из shop
+ * (currencies, categories, offers, ...) по одной передаются в RowListener,
+ * поэтому расход памяти не зависит от размера фида.
+ */
+public final class YmlStreamParser {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private YmlStreamParser() {}
+
+    /**
+     * Разбирает все таблицы из xml
+     * @param xmlStream поток с xml
+     * @param listener получатель строк
+     */
+    public static void parse(InputStream xmlStream, RowListener listener) throws Exception {
+        parse(xmlStream, null, listener);
+    }
+
+    /**
+     * Разбирает одну таблицу из xml, остальные пропускаются
+     * @param xmlStream поток с xml
+     * @param tableName название таблицы (null - все таблицы)
+     * @param listener получатель строк
+     */
+    public static void parse(InputStream xmlStream, String tableName, RowListener listener) throws Exception {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(xmlStream);
+        try {
+            // Переходим к корневому элементу yml_catalog
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT);
+            if (!reader.isStartElement()) return;
+
+            while (nextChild(reader)) {
+                if (Objects.equals(reader.getLocalName(), "shop")) readShop(reader, tableName, listener);
+                else skipElement(reader);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void readShop(XMLStreamReader reader, String tableName, RowListener listener) throws Exception {
+        // Итерируемся по всем элементам shop
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if (tableName != null && !Objects.equals(tableName, name)) {
+                skipElement(reader);
+                continue;
+            }
+            // Если внутри элемента присутствуют другие элементы, считаем, что это таблица
+            boolean isTable = false;
+            while (nextChild(reader)) {
+                if (!isTable) {
+                    listener.table(name);
+                    isTable = true;
+                }
+                listener.row(name, readRow(reader));
+            }
+        }
+    }
+
+    /**
+     * Читает одну строку таблицы, значения формируются так же, как в XmlDBService.getTableDDL
+     */
+    private static Map<String, String> readRow(XMLStreamReader reader) throws XMLStreamException {
+        Map<String, String> valuesMap = new HashMap<>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            valuesMap.put(reader.getAttributeLocalName(i).toLowerCase(), reader.getAttributeValue(i));
+        }
+        Map<String, String> paramMap = new HashMap<>();
+        TextBuffer text = new TextBuffer();
+        boolean hasChildren = false;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                hasChildren = true;
+                String columnName = reader.getLocalName().toLowerCase();
+                // Для полей "param" создаётся отдельный HashMap, который затем приводится к формату jsonb
+                if (Objects.equals(columnName, "param")) {
+                    String paramName = reader.getAttributeValue(null, "name");
+                    paramMap.put(paramName, readText(reader));
+                } else {
+                    valuesMap.put(columnName, readText(reader));
+                }
+            } else if (isText(event)) {
+                text.append(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+
+        if (!paramMap.isEmpty()) valuesMap.put("param", new JSONObject(paramMap).toString());
+
+        // Для данных в строчках таблицы без имени (как в categories) добавляется название колонки "data"
+        String rowText = text.toString();
+        if (!hasChildren && !Objects.equals(rowText, "")) valuesMap.put("data", rowText);
+        return valuesMap;
+    }
+
+    /**
+     * Возвращает текст элемента вместе с текстом вложенных элементов (как GPathResult.text())
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        TextBuffer text = new TextBuffer();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                text.flush();
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                text.flush();
+                depth--;
+            } else if (isText(event)) {
+                text.append(reader);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Переходит к следующему дочернему элементу текущего элемента
+     * @return false, если дочерних элементов больше нет (достигнут конец текущего элемента)
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) return true;
+            if (event == XMLStreamConstants.END_ELEMENT) return false;
+        }
+        return false;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
+    private static boolean isText(int event) {
+        return event == XMLStreamConstants.CHARACTERS
+                || event == XMLStreamConstants.CDATA
+                || event == XMLStreamConstants.SPACE;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        // Внешний DTD (shops.dtd) подменяется пустым, как и в XmlSlurper
+        factory.setXMLResolver((publicId, systemId, baseUri, namespace) -> new ByteArrayInputStream(new byte[0]));
+        return factory;
+    }
+
+    /**
+     * Накопитель текста: участки, состоящие только из пробельных символов, отбрасываются (как в XmlSlurper)
+     */
+    private static final class TextBuffer {
+        private final StringBuilder result = new StringBuilder();
+        private final StringBuilder chunk = new StringBuilder();
+
+        void append(XMLStreamReader reader) {
+            chunk.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+
+        void flush() {
+            if (!chunk.toString().isBlank()) result.append(chunk);
+            chunk.setLength(0);
+        }
+
+        @Override
+        public String toString() {
+            flush();
+            return result.toString();
+        }
+    }
+}
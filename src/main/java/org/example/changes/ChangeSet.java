@@ -0,0 +1,33 @@
+package org.example.changes;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Изменения таблиц, зафиксированные одной транзакцией синхронизации
+ * (одна таблица при обновлении таблиц в отдельных транзакциях, все таблицы в режиме одной транзакции)
+ * @param feedVersion версия фида, из которой загружены таблицы
+ * @param createdAt время формирования (перед фиксацией транзакции)
+ * @param tables изменения по таблицам
+ */
+public record ChangeSet(String feedVersion, Instant createdAt, List<TableChanges> tables) {
+    public boolean isEmpty() {
+        return tables.stream().allMatch(TableChanges::isEmpty);
+    }
+
+    /**
+     * @return изменения одной строкой json
+     */
+    public String toJson() {
+        JSONArray tablesJson = new JSONArray();
+        tables.forEach(tableChanges -> tablesJson.put(tableChanges.toJson()));
+        return new JSONObject()
+                .put("feedVersion", feedVersion == null ? JSONObject.NULL : feedVersion)
+                .put("createdAt", createdAt.toString())
+                .put("tables", tablesJson)
+                .toString();
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.changes;
+
+import java.sql.Connection;
+import java.util.function.Consumer;
+
+/**
+ * Получатель изменений синхронизации.
+ * beforeCommit вызывается в транзакции синхронизации (запись изменений фиксируется вместе с данными),
+ * afterCommit - после фиксации; ошибка afterCommit не отменяет синхронизацию
+ */
+public interface ChangeSink {
+    /**
+     * @param connection соединение синхронизации с открытой транзакцией
+     * @param changeSet изменения, которые будут зафиксированы
+     */
+    default void beforeCommit(Connection connection, ChangeSet changeSet) throws Exception {}
+
+    /**
+     * @param changeSet зафиксированные изменения
+     */
+    default void afterCommit(ChangeSet changeSet) throws Exception {}
+
+    /**
+     * @param listener вызывается после фиксации каждой транзакции с изменениями
+     * @return получатель, передающий изменения в listener
+     */
+    static ChangeSink listener(Consumer<ChangeSet> listener) {
+        return new ChangeSink() {
+            @Override
+            public void afterCommit(ChangeSet changeSet) {
+                listener.accept(changeSet);
+            }
+        };
+    }
+}
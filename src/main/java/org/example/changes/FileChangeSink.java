@@ -0,0 +1,24 @@
+package org.example.changes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Запись изменений в локальный файл: одна строка json на транзакцию, файл только дополняется
+ */
+public class FileChangeSink implements ChangeSink {
+    private final Path file;
+
+    public FileChangeSink(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void afterCommit(ChangeSet changeSet) throws IOException {
+        Files.writeString(file, changeSet.toJson() + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+}
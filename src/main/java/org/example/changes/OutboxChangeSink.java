@@ -0,0 +1,48 @@
+package org.example.changes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Запись изменений в таблицу outbox в транзакции синхронизации: строка на каждую изменившуюся таблицу.
+ * Изменения появляются в outbox тогда и только тогда, когда зафиксированы данные;
+ * потребители читают строки по возрастанию id
+ */
+public class OutboxChangeSink implements ChangeSink {
+    public static final String DEFAULT_TABLE = "xml_changes";
+
+    private final String tableName;
+
+    public OutboxChangeSink() {
+        this(DEFAULT_TABLE);
+    }
+
+    /**
+     * @param tableName таблица outbox (создаётся при первой записи)
+     */
+    public OutboxChangeSink(String tableName) {
+        this.tableName = tableName;
+    }
+
+    @Override
+    public void beforeCommit(Connection connection, ChangeSet changeSet) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (\n" +
+                    "    id bigserial PRIMARY KEY,\n    created_at timestamp DEFAULT now(),\n" +
+                    "    feed_version varchar,\n    table_name varchar,\n    changes jsonb\n)");
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO " + tableName + " (feed_version, table_name, changes) VALUES (?, ?, ?::jsonb)")) {
+            for (TableChanges tableChanges : changeSet.tables()) {
+                if (tableChanges.isEmpty()) continue;
+                insert.setString(1, changeSet.feedVersion());
+                insert.setString(2, tableChanges.tableName());
+                insert.setString(3, tableChanges.toJson().toString());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.changes;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Изменения таблицы за одну синхронизацию
+ * @param tableName название таблицы
+ * @param inserted id добавленных строк
+ * @param updated id изменившихся строк и названия изменившихся в них колонок
+ * @param deleted id удалённых строк
+ */
+public record TableChanges(String tableName, List<String> inserted, Map<String, List<String>> updated, List<String> deleted) {
+    public boolean isEmpty() {
+        return inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+    }
+
+    public JSONObject toJson() {
+        JSONObject updatedJson = new JSONObject();
+        updated.forEach((id, columns) -> updatedJson.put(id, new JSONArray(columns)));
+        return new JSONObject()
+                .put("table", tableName)
+                .put("inserted", new JSONArray(inserted))
+                .put("updated", updatedJson)
+                .put("deleted", new JSONArray(deleted));
+    }
+}
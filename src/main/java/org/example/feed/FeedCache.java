@@ -0,0 +1,126 @@
+package org.example.feed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * Локальный кэш фида: содержимое последнего полученного документа, его валидаторы
+ * (ETag, Last-Modified) и хеш содержимого. Кэш нужен только для условных запросов:
+ * версия, загруженная в бд, хранится в бд, поэтому кэш может быть общим для нескольких бд и схем.
+ * Файлы заменяются атомарно, поэтому прерванная загрузка не портит кэш
+ */
+public class FeedCache {
+    private static final String BODY_FILE = "feed.xml";
+    private static final String META_FILE = "feed.properties";
+
+    private final Path directory;
+    private final Properties meta = new Properties();
+
+    public FeedCache(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        Path metaPath = directory.resolve(META_FILE);
+        if (Files.exists(metaPath) && Files.exists(body())) {
+            try (Reader reader = Files.newBufferedReader(metaPath, StandardCharsets.UTF_8)) {
+                meta.load(reader);
+            }
+        }
+    }
+
+    /**
+     * @return путь к содержимому фида
+     */
+    public Path body() {
+        return directory.resolve(BODY_FILE);
+    }
+
+    /**
+     * @return true, если в кэше есть содержимое фида
+     */
+    public boolean exists() {
+        return meta.containsKey("sha256");
+    }
+
+    public String etag() {
+        return meta.getProperty("etag");
+    }
+
+    public String lastModified() {
+        return meta.getProperty("lastModified");
+    }
+
+    /**
+     * @return хеш содержимого фида (sha256)
+     */
+    public String version() {
+        return meta.getProperty("sha256");
+    }
+
+    /**
+     * Сохраняет новое содержимое фида
+     * @param body содержимое (уже распакованное)
+     * @param etag значение заголовка ETag
+     * @param lastModified значение заголовка Last-Modified
+     * @return количество сохранённых байт
+     */
+    public long store(InputStream body, String etag, String lastModified) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Path tmp = Files.createTempFile(directory, BODY_FILE, ".tmp");
+        long size;
+        try (InputStream in = new DigestInputStream(body, digest)) {
+            size = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, body(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        setOrRemove("etag", etag);
+        setOrRemove("lastModified", lastModified);
+        meta.setProperty("sha256", HexFormat.of().formatHex(digest.digest()));
+        saveMeta();
+        return size;
+    }
+
+    /**
+     * Обновляет валидаторы без изменения содержимого (ответ 304)
+     */
+    public void touch(String etag, String lastModified) throws IOException {
+        if (etag != null) meta.setProperty("etag", etag);
+        if (lastModified != null) meta.setProperty("lastModified", lastModified);
+        saveMeta();
+    }
+
+    private void setOrRemove(String key, String value) {
+        if (value == null) meta.remove(key);
+        else meta.setProperty(key, value);
+    }
+
+    private void saveMeta() throws IOException {
+        Path tmp = Files.createTempFile(directory, META_FILE, ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                meta.store(writer, null);
+            }
+            Files.move(tmp, directory.resolve(META_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
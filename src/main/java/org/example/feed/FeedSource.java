@@ -0,0 +1,61 @@
+package org.example.feed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Источник xml фида.
+ * Источник только получает фид; какая версия загружена в бд, хранится в самой бд (см. XmlDBService.sync)
+ */
+public interface FeedSource {
+    /**
+     * Получает актуальную версию фида (для http - условным запросом)
+     */
+    void fetch() throws IOException;
+
+    /**
+     * Получает актуальную версию фида как fetch() и передаёт её содержимое в tap по мере получения,
+     * чтобы разбор мог начаться до окончания загрузки.
+     * Если заранее известно, что получена версия skipVersion, содержимое не передаётся
+     * @param tap получатель содержимого фида (не закрывается)
+     * @param skipVersion версия, загруженная в бд, null если неизвестна
+     * @return true, если содержимое передано в tap
+     */
+    default boolean fetch(OutputStream tap, String skipVersion) throws IOException {
+        fetch();
+        if (Objects.equals(version(), skipVersion)) return false;
+        try (InputStream xmlStream = open()) {
+            xmlStream.transferTo(tap);
+        }
+        return true;
+    }
+
+    /**
+     * Открывает поток с содержимым последней полученной версии фида.
+     * Может вызываться несколько раз (например, в потоковом режиме XmlDBService)
+     * @return поток с xml
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * @return версия последнего полученного фида, null если фид ещё не получен
+     */
+    String version();
+
+    /**
+     * @return файл с содержимым последней полученной версии фида, null если содержимое не хранится на диске
+     */
+    default Path localPath() {
+        return null;
+    }
+
+    /**
+     * @return количество байт содержимого, полученных последним fetch() (0, если содержимое не передавалось)
+     */
+    default long fetchedBytes() {
+        return 0;
+    }
+}
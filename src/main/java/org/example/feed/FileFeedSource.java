@@ -0,0 +1,43 @@
+package org.example.feed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Фид из локального файла (для запуска без сети и тестов).
+ * Версией считаются время изменения и размер файла
+ */
+public class FileFeedSource implements FeedSource {
+    private final Path path;
+    private String version;
+
+    public FileFeedSource(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public void fetch() throws IOException {
+        version = Files.getLastModifiedTime(path).toMillis() + "-" + Files.size(path);
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public String version() {
+        return version;
+    }
+
+    @Override
+    public Path localPath() {
+        return path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+}
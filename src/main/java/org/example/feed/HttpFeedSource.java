@@ -0,0 +1,176 @@
+package org.example.feed;
+
+import java.io.IOException;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Фид, загружаемый по http(s).
+ * Отправляет условный запрос (If-None-Match/If-Modified-Since) с валидаторами из кэша и принимает gzip.
+ * Содержимое сохраняется в FeedCache, open() читает его с диска.
+ * Если сервер недоступен, не ответил за время ожидания ответа или отвечает 5xx, а в кэше есть содержимое,
+ * используется версия из кэша
+ */
+public class HttpFeedSource implements FeedSource {
+    private static final Logger LOG = Logger.getLogger("org.example.feed");
+    // Время ожидания ответа сервера по умолчанию (до заголовков ответа, загрузка содержимого не ограничена)
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private final URI uri;
+    private final FeedCache cache;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private volatile long fetchedBytes;
+
+    public HttpFeedSource(String url, FeedCache cache) {
+        this(url, cache, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param url адрес фида
+     * @param cache кэш фида
+     * @param requestTimeout время ожидания ответа сервера; если ответа нет, используется версия из кэша
+     */
+    public HttpFeedSource(String url, FeedCache cache, Duration requestTimeout) {
+        this.uri = URI.create(url);
+        this.cache = cache;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    @Override
+    public void fetch() throws IOException {
+        fetchTo(null, null);
+    }
+
+    /**
+     * Новое содержимое передаётся в tap одновременно с записью в кэш.
+     * Если содержимое не изменилось (304 или ошибка сервера при наличии кэша), в tap передаётся содержимое из кэша,
+     * кроме версии skipVersion
+     */
+    @Override
+    public boolean fetch(OutputStream tap, String skipVersion) throws IOException {
+        return fetchTo(Objects.requireNonNull(tap), skipVersion);
+    }
+
+    /**
+     * @param tap получатель содержимого, null если содержимое нужно только сохранить в кэш
+     * @return true, если содержимое передано в tap
+     */
+    private boolean fetchTo(OutputStream tap, String skipVersion) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .header("Accept", "application/xml")
+                .header("Accept-Encoding", "gzip")
+                .timeout(requestTimeout)
+                .GET();
+        if (cache.exists()) {
+            if (cache.etag() != null) request.header("If-None-Match", cache.etag());
+            if (cache.lastModified() != null) request.header("If-Modified-Since", cache.lastModified());
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Загрузка фида прервана", e);
+        } catch (IOException e) {
+            // В том числе HttpTimeoutException: сервер принял соединение, но не ответил за requestTimeout
+            if (!cache.exists()) throw e;
+            LOG.log(Level.WARNING, "Feed " + uri + " is not available, using cached version", e);
+            return fromCache(tap, skipVersion);
+        }
+
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 304 && cache.exists()) {
+                cache.touch(etag, lastModified);
+                return fromCache(tap, skipVersion);
+            } else if (response.statusCode() == 200) {
+                boolean gzip = response.headers().firstValue("Content-Encoding")
+                        .map(encoding -> encoding.equalsIgnoreCase("gzip"))
+                        .orElse(false);
+                InputStream content = gzip ? new GZIPInputStream(body) : body;
+                fetchedBytes = cache.store(tap != null ? new TeeInputStream(content, tap) : content, etag, lastModified);
+                return tap != null;
+            } else if (response.statusCode() >= 500 && cache.exists()) {
+                LOG.warning("Feed " + uri + " returned HTTP " + response.statusCode() + ", using cached version");
+                return fromCache(tap, skipVersion);
+            } else {
+                throw new IOException("Unexpected HTTP status " + response.statusCode() + " for " + uri);
+            }
+        }
+    }
+
+    /**
+     * Версия фида из кэша: содержимое не загружалось, в tap передаётся содержимое из кэша
+     */
+    private boolean fromCache(OutputStream tap, String skipVersion) throws IOException {
+        fetchedBytes = 0;
+        if (tap == null || Objects.equals(cache.version(), skipVersion)) return false;
+        Files.copy(cache.body(), tap);
+        return true;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return Files.newInputStream(cache.body());
+    }
+
+    @Override
+    public String version() {
+        return cache.version();
+    }
+
+    @Override
+    public Path localPath() {
+        return cache.exists() ? cache.body() : null;
+    }
+
+    @Override
+    public long fetchedBytes() {
+        return fetchedBytes;
+    }
+
+    /**
+     * Поток, копирующий прочитанные данные в tap
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream tap;
+
+        TeeInputStream(InputStream in, OutputStream tap) {
+            super(in);
+            this.tap = tap;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) tap.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) tap.write(buffer, offset, count);
+            return count;
+        }
+    }
+}
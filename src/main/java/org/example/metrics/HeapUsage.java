@@ -0,0 +1,29 @@
+package org.example.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Наибольшее использование heap за одну синхронизацию по замерам на границах этапов.
+ * Общие счётчики JVM (пики пулов памяти) не сбрасываются: их используют и другие части приложения
+ */
+final class HeapUsage {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Замеряет текущее использование heap
+     */
+    void sample() {
+        max.accumulate(MEMORY.getHeapMemoryUsage().getUsed());
+    }
+
+    /**
+     * @return наибольшее замеренное использование heap в байтах
+     */
+    long max() {
+        return max.get();
+    }
+}
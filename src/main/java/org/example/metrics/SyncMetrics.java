@@ -0,0 +1,221 @@
+package org.example.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Реестр метрик синхронизации.
+ * Этапы (получение фида, разбор, вывод схем, формирование sql) записываются по мере выполнения,
+ * обновление таблиц - в SyncReport, который по завершении синхронизации выводится в лог одной строкой json.
+ * Значения доступны по JMX
+ */
+public class SyncMetrics implements SyncMetricsMXBean {
+    private static final Logger LOG = Logger.getLogger("org.example.sync");
+
+    private final LongAdder syncCount = new LongAdder();
+    private final LongAdder failedTablesTotal = new LongAdder();
+    private final LongAdder rowsTotal = new LongAdder();
+    private final LongAdder fetchedBytesTotal = new LongAdder();
+    private final LongAdder payloadBytesTotal = new LongAdder();
+    private volatile long lastFetchNanos;
+    private volatile long lastFetchedBytes;
+    private volatile long lastParseNanos;
+    private volatile long lastSchemaNanos;
+    private volatile long lastSqlBuildNanos;
+    private volatile long lastSqlBuildBytes;
+    private volatile SyncReport lastReport;
+
+    /**
+     * Регистрирует метрики в MBeanServer платформы как org.example:type=SyncMetrics,name=&lt;name&gt;
+     * (к имени добавляется номер, если оно уже занято)
+     * @param name имя экземпляра
+     * @return имя MBean, null если зарегистрировать не удалось
+     */
+    public ObjectName registerMBean(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (int i = 1; ; i++) {
+            try {
+                ObjectName objectName = new ObjectName("org.example:type=SyncMetrics,name=" + (i == 1 ? name : name + "-" + i));
+                server.registerMBean(this, objectName);
+                return objectName;
+            } catch (InstanceAlreadyExistsException e) {
+                // Имя занято другим экземпляром сервиса - пробуем следующее
+            } catch (JMException e) {
+                LOG.log(Level.WARNING, "Failed to register sync metrics MBean", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Снимает регистрацию метрик, выполненную registerMBean
+     * @param objectName имя MBean, null если метрики не зарегистрированы
+     */
+    public void unregisterMBean(ObjectName objectName) {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Failed to unregister sync metrics MBean", e);
+        }
+    }
+
+    /**
+     * @param nanos время получения фида
+     * @param bytes количество полученных байт
+     */
+    public void recordFetch(long nanos, long bytes) {
+        lastFetchNanos = nanos;
+        lastFetchedBytes = bytes;
+        fetchedBytesTotal.add(bytes);
+    }
+
+    /**
+     * @param parseNanos время разбора xml (включая вывод схем)
+     * @param schemaNanos время вывода схем и статистики столбцов
+     */
+    public void recordParse(long parseNanos, long schemaNanos) {
+        lastParseNanos = parseNanos;
+        lastSchemaNanos = schemaNanos;
+    }
+
+    /**
+     * @param nanos время формирования sql getTableDDL
+     * @param bytes размер sql
+     */
+    public void recordSqlBuild(long nanos, long bytes) {
+        lastSqlBuildNanos = nanos;
+        lastSqlBuildBytes = bytes;
+    }
+
+    /**
+     * Начинает синхронизацию: фиксирует последние получение и разбор фида
+     * @param tableNames обновляемые таблицы
+     * @return отчёт, в который записываются метрики таблиц
+     */
+    public SyncReport startSync(List<String> tableNames) {
+        return new SyncReport(tableNames, lastFetchNanos, lastFetchedBytes, lastParseNanos, lastSchemaNanos);
+    }
+
+    /**
+     * Завершает синхронизацию: обновляет накопленные значения и выводит отчёт в лог
+     * @param report отчёт синхронизации
+     */
+    public void finishSync(SyncReport report) {
+        report.finish();
+
+        syncCount.increment();
+        failedTablesTotal.add(report.getFailedTables());
+        rowsTotal.add(report.getRows());
+        payloadBytesTotal.add(report.getPayloadBytes());
+        lastReport = report;
+        if (LOG.isLoggable(Level.INFO)) LOG.info("sync " + report.toJson());
+    }
+
+    /**
+     * @return отчёт последней синхронизации, null если синхронизаций не было
+     */
+    public SyncReport getLastReport() {
+        return lastReport;
+    }
+
+    @Override
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    @Override
+    public long getFailedTablesTotal() {
+        return failedTablesTotal.sum();
+    }
+
+    @Override
+    public long getRowsTotal() {
+        return rowsTotal.sum();
+    }
+
+    @Override
+    public long getFetchedBytesTotal() {
+        return fetchedBytesTotal.sum();
+    }
+
+    @Override
+    public long getPayloadBytesTotal() {
+        return payloadBytesTotal.sum();
+    }
+
+    @Override
+    public long getLastFetchMillis() {
+        return TableMetrics.millis(lastFetchNanos);
+    }
+
+    @Override
+    public long getLastFetchedBytes() {
+        return lastFetchedBytes;
+    }
+
+    @Override
+    public long getLastParseMillis() {
+        return TableMetrics.millis(lastParseNanos);
+    }
+
+    @Override
+    public long getLastSchemaMillis() {
+        return TableMetrics.millis(lastSchemaNanos);
+    }
+
+    @Override
+    public long getLastSqlBuildMillis() {
+        return TableMetrics.millis(lastSqlBuildNanos);
+    }
+
+    @Override
+    public long getLastSqlBuildBytes() {
+        return lastSqlBuildBytes;
+    }
+
+    @Override
+    public long getLastSyncMillis() {
+        SyncReport report = lastReport;
+        return report != null ? TableMetrics.millis(report.getTotalNanos()) : 0;
+    }
+
+    @Override
+    public long getLastRowsPerSecond() {
+        SyncReport report = lastReport;
+        if (report == null || report.getTotalNanos() == 0) return 0;
+        return Math.round(report.getRows() * 1e9 / report.getTotalNanos());
+    }
+
+    @Override
+    public long getLastPayloadBytes() {
+        SyncReport report = lastReport;
+        return report != null ? report.getPayloadBytes() : 0;
+    }
+
+    @Override
+    public long getLastCommitMillis() {
+        SyncReport report = lastReport;
+        if (report == null) return 0;
+        return TableMetrics.millis(report.getTables().stream().mapToLong(TableMetrics::getCommitNanos).max().orElse(0));
+    }
+
+    @Override
+    public long getLastHeapPeakBytes() {
+        SyncReport report = lastReport;
+        return report != null ? report.getHeapPeakBytes() : 0;
+    }
+
+    @Override
+    public String getLastSyncReport() {
+        SyncReport report = lastReport;
+        return report != null ? report.toJson() : "{}";
+    }
+}
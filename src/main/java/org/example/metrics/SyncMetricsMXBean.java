@@ -0,0 +1,44 @@
+package org.example.metrics;
+
+/**
+ * Метрики синхронизации, доступные по JMX (org.example:type=SyncMetrics).
+ * Last* - значения последней синхронизации или последнего этапа, Total* - накопленные с запуска
+ */
+public interface SyncMetricsMXBean {
+    long getSyncCount();
+
+    long getFailedTablesTotal();
+
+    long getRowsTotal();
+
+    long getFetchedBytesTotal();
+
+    long getPayloadBytesTotal();
+
+    long getLastFetchMillis();
+
+    long getLastFetchedBytes();
+
+    long getLastParseMillis();
+
+    long getLastSchemaMillis();
+
+    long getLastSqlBuildMillis();
+
+    long getLastSqlBuildBytes();
+
+    long getLastSyncMillis();
+
+    long getLastRowsPerSecond();
+
+    long getLastPayloadBytes();
+
+    long getLastCommitMillis();
+
+    long getLastHeapPeakBytes();
+
+    /**
+     * @return отчёт последней синхронизации в формате json
+     */
+    String getLastSyncReport();
+}
@@ -0,0 +1,122 @@
+package org.example.metrics;
+
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Метрики одной синхронизации: получение и разбор фида, обновление каждой таблицы, наибольшее использование heap
+ * (замеряется в начале и конце синхронизации и на границах этапов).
+ * Создаётся SyncMetrics.startSync; таблицы, не известные при создании (конвейерный режим), добавляются при обращении
+ */
+public final class SyncReport {
+    private final Instant startedAt = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, TableMetrics> tables;
+    private final HeapUsage heapUsage = new HeapUsage();
+    private volatile long fetchNanos;
+    private volatile long fetchedBytes;
+    private volatile long parseNanos;
+    private volatile long schemaNanos;
+    private volatile long totalNanos;
+    private volatile long heapPeakBytes;
+
+    SyncReport(List<String> tableNames, long fetchNanos, long fetchedBytes, long parseNanos, long schemaNanos) {
+        this.tables = Collections.synchronizedMap(new LinkedHashMap<>());
+        for (String tableName : tableNames) tables.put(tableName, new TableMetrics(tableName, heapUsage));
+        this.fetchNanos = fetchNanos;
+        this.fetchedBytes = fetchedBytes;
+        this.parseNanos = parseNanos;
+        this.schemaNanos = schemaNanos;
+        heapUsage.sample();
+    }
+
+    /**
+     * @param tableName название таблицы
+     * @return метрики таблицы
+     */
+    public TableMetrics table(String tableName) {
+        return tables.computeIfAbsent(tableName, name -> new TableMetrics(name, heapUsage));
+    }
+
+    public List<TableMetrics> getTables() {
+        synchronized (tables) {
+            return List.copyOf(tables.values());
+        }
+    }
+
+    /**
+     * Записывает получение фида, выполненное в рамках синхронизации
+     */
+    public void setFetch(long fetchNanos, long fetchedBytes) {
+        this.fetchNanos = fetchNanos;
+        this.fetchedBytes = fetchedBytes;
+        heapUsage.sample();
+    }
+
+    /**
+     * Записывает разбор фида, выполненный в рамках синхронизации
+     */
+    public void setParse(long parseNanos, long schemaNanos) {
+        this.parseNanos = parseNanos;
+        this.schemaNanos = schemaNanos;
+        heapUsage.sample();
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getHeapPeakBytes() {
+        return heapPeakBytes;
+    }
+
+    public long getRows() {
+        return getTables().stream().mapToLong(TableMetrics::getRows).sum();
+    }
+
+    public long getPayloadBytes() {
+        return getTables().stream().mapToLong(TableMetrics::getPayloadBytes).sum();
+    }
+
+    public long getFailedTables() {
+        return getTables().stream().filter(TableMetrics::isFailed).count();
+    }
+
+    void finish() {
+        this.totalNanos = System.nanoTime() - startNanos;
+        heapUsage.sample();
+        this.heapPeakBytes = heapUsage.max();
+    }
+
+    /**
+     * @return отчёт одной строкой json (для лога)
+     */
+    public String toJson() {
+        JSONObject tablesJson = new JSONObject();
+        getTables().forEach(tableMetrics -> tablesJson.put(tableMetrics.getTableName(), tableMetrics.toJson()));
+        long rows = getRows();
+        return new JSONObject()
+                .put("startedAt", startedAt.toString())
+                .put("fetchMs", TableMetrics.millis(fetchNanos))
+                .put("fetchedBytes", fetchedBytes)
+                .put("parseMs", TableMetrics.millis(parseNanos))
+                .put("schemaMs", TableMetrics.millis(schemaNanos))
+                .put("totalMs", TableMetrics.millis(totalNanos))
+                .put("rows", rows)
+                .put("rowsPerSec", totalNanos > 0 ? Math.round(rows * 1e9 / totalNanos) : 0)
+                .put("payloadBytes", getPayloadBytes())
+                .put("heapPeakBytes", heapPeakBytes)
+                .put("failedTables", getFailedTables())
+                .put("tables", tablesJson)
+                .toString();
+    }
+}
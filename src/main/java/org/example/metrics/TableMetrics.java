@@ -0,0 +1,148 @@
+package org.example.metrics;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики обновления одной таблицы за одну синхронизацию.
+ * Значения добавляются по этапам, а не по строкам, в том числе из нескольких потоков (секции, конвейер).
+ * По окончании каждого этапа замеряется использование heap для отчёта синхронизации
+ */
+public final class TableMetrics {
+    private final String tableName;
+    private final HeapUsage heapUsage;
+    private final AtomicLong rows = new AtomicLong();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder ddlNanos = new LongAdder();
+    private final LongAdder stageNanos = new LongAdder();
+    private final LongAdder mergeNanos = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private volatile long totalNanos;
+    private volatile boolean failed;
+
+    TableMetrics(String tableName, HeapUsage heapUsage) {
+        this.tableName = tableName;
+        this.heapUsage = heapUsage;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @param rows количество строк таблицы в фиде
+     */
+    public void setRows(long rows) {
+        this.rows.set(rows);
+    }
+
+    /**
+     * Учитывает данные, отправленные в бд (sql и csv для COPY)
+     * @param bytes размер в байтах
+     */
+    public void addPayloadBytes(long bytes) {
+        payloadBytes.add(bytes);
+    }
+
+    public void addDdlNanos(long nanos) {
+        ddlNanos.add(nanos);
+        heapUsage.sample();
+    }
+
+    /**
+     * @param nanos время загрузки строк во временную таблицу (COPY)
+     */
+    public void addStageNanos(long nanos) {
+        stageNanos.add(nanos);
+        heapUsage.sample();
+    }
+
+    /**
+     * @param nanos время слияния временной таблицы с основной
+     */
+    public void addMergeNanos(long nanos) {
+        mergeNanos.add(nanos);
+        heapUsage.sample();
+    }
+
+    public void addCommitNanos(long nanos) {
+        commitNanos.add(nanos);
+        heapUsage.sample();
+    }
+
+    public void setTotalNanos(long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+    public void failed() {
+        failed = true;
+    }
+
+    /**
+     * @return метрики части таблицы (секции), которая обновляется в другом потоке; добавляются через add
+     */
+    public TableMetrics part() {
+        return new TableMetrics(tableName, heapUsage);
+    }
+
+    /**
+     * Добавляет метрики части таблицы (строки, объём и время этапов, без общего времени)
+     */
+    public void add(TableMetrics part) {
+        rows.addAndGet(part.rows.get());
+        payloadBytes.add(part.payloadBytes.sum());
+        ddlNanos.add(part.ddlNanos.sum());
+        stageNanos.add(part.stageNanos.sum());
+        mergeNanos.add(part.mergeNanos.sum());
+        commitNanos.add(part.commitNanos.sum());
+        if (part.failed) failed = true;
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    public long getCommitNanos() {
+        return commitNanos.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return строк в секунду за всё время обновления таблицы
+     */
+    public double rowsPerSecond() {
+        long totalNanos = this.totalNanos;
+        return totalNanos > 0 ? getRows() * 1e9 / totalNanos : 0;
+    }
+
+    JSONObject toJson() {
+        return new JSONObject()
+                .put("rows", getRows())
+                .put("rowsPerSec", Math.round(rowsPerSecond()))
+                .put("payloadBytes", getPayloadBytes())
+                .put("ddlMs", millis(ddlNanos.sum()))
+                .put("stageMs", millis(stageNanos.sum()))
+                .put("mergeMs", millis(mergeNanos.sum()))
+                .put("commitMs", millis(getCommitNanos()))
+                .put("totalMs", millis(totalNanos))
+                .put("failed", failed);
+    }
+
+    static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.schema;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Статистика столбца, собранная при разборе фида
+ * @param rowCount количество строк в таблице
+ * @param nullCount количество строк без значения в столбце
+ * @param distinctCount количество различных значений (оценка, если exact = false)
+ * @param maxLength максимальная длина значения
+ * @param exact true, если distinctCount посчитан точно
+ * @param type самый узкий тип, вмещающий все значения столбца (null, если значений нет)
+ */
+public record ColumnStats(long rowCount, long nullCount, long distinctCount, int maxLength, boolean exact,
+                          ColumnType type) {
+
+    /**
+     * Проверка уникальности столбца (как COUNT(DISTINCT col) = COUNT(*): null значения делают столбец неуникальным)
+     * @return TRUE/FALSE, если ответ следует из статистики; null, если по приближённой статистике ответить нельзя
+     */
+    public Boolean isUnique() {
+        if (nullCount > 0) return false;
+        if (exact) return distinctCount == rowCount;
+        // Оценка заметно меньше количества строк - повторы точно есть
+        if (distinctCount < rowCount * (1 - 3 * HyperLogLog.STANDARD_ERROR)) return false;
+        return null;
+    }
+
+    /**
+     * Накопление статистики столбца. Различные значения считаются точно,
+     * пока их не больше exactDistinctLimit, затем переходит на HyperLogLog
+     */
+    public static class Collector {
+        private final int exactDistinctLimit;
+        private Set<String> distinctValues = new HashSet<>();
+        private HyperLogLog sketch;
+        private long valueCount;
+        private int maxLength;
+        private ColumnType type;
+
+        /**
+         * @param exactDistinctLimit количество различных значений, до которого подсчёт точный
+         */
+        public Collector(int exactDistinctLimit) {
+            this.exactDistinctLimit = exactDistinctLimit;
+        }
+
+        public void add(String value) {
+            if (value == null) return;
+            valueCount++;
+            maxLength = Math.max(maxLength, value.length());
+            // varchar вмещает любые значения, дальше тип не проверяется
+            if (type != ColumnType.VARCHAR) {
+                ColumnType valueType = ColumnType.infer(value);
+                type = type == null ? valueType : type.widen(valueType);
+            }
+            if (sketch != null) {
+                sketch.add(value);
+            } else if (distinctValues.add(value) && distinctValues.size() > exactDistinctLimit) {
+                switchToSketch();
+            }
+        }
+
+        /**
+         * Объединяет статистику другой части той же таблицы
+         */
+        public void merge(Collector other) {
+            valueCount += other.valueCount;
+            maxLength = Math.max(maxLength, other.maxLength);
+            if (other.type != null) type = type == null ? other.type : type.widen(other.type);
+            if (sketch == null && other.sketch == null) {
+                distinctValues.addAll(other.distinctValues);
+                if (distinctValues.size() > exactDistinctLimit) switchToSketch();
+                return;
+            }
+            if (sketch == null) switchToSketch();
+            if (other.sketch != null) sketch.merge(other.sketch);
+            else other.distinctValues.forEach(sketch::add);
+        }
+
+        /**
+         * @param rowCount количество строк в таблице
+         * @return статистика столбца
+         */
+        public ColumnStats toStats(long rowCount) {
+            boolean exact = sketch == null;
+            long distinctCount = exact ? distinctValues.size() : Math.min(sketch.estimate(), valueCount);
+            return new ColumnStats(rowCount, rowCount - valueCount, distinctCount, maxLength, exact, type);
+        }
+
+        private void switchToSketch() {
+            sketch = new HyperLogLog();
+            distinctValues.forEach(sketch::add);
+            distinctValues = null;
+        }
+    }
+}
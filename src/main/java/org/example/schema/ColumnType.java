@@ -0,0 +1,113 @@
+package org.example.schema;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Pattern;
+
+/**
+ * Типы столбцов, выводимые из значений xml.
+ * Тип выбирается самым узким, в котором значение хранится без потерь (с сохранением текстового вида),
+ * расширение: integer -> bigint -> numeric -> varchar, boolean/timestamp -> varchar
+ */
+public enum ColumnType {
+    BOOLEAN("boolean", -1),
+    INTEGER("integer", 0),
+    BIGINT("bigint", 1),
+    NUMERIC("numeric", 2),
+    TIMESTAMP("timestamp", -1),
+    VARCHAR("varchar", -1),
+    JSONB("jsonb", -1);
+
+    // Целые без ведущих нулей (иначе "007" превратится в 7) и без "-0"
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("0|-?[1-9][0-9]*");
+    private static final Pattern NUMERIC_PATTERN = Pattern.compile("-?(0|[1-9][0-9]*)\\.[0-9]+");
+    private static final Pattern NEGATIVE_ZERO_PATTERN = Pattern.compile("-0\\.0+");
+    private static final Pattern TIMESTAMP_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}[ T]\\d{2}:\\d{2}(:\\d{2})?");
+
+    private final String sqlName;
+    // Порядок в цепочке числовых типов, -1 для остальных
+    private final int numericRank;
+
+    ColumnType(String sqlName, int numericRank) {
+        this.sqlName = sqlName;
+        this.numericRank = numericRank;
+    }
+
+    public String getSqlName() {
+        return sqlName;
+    }
+
+    /**
+     * Возвращает тип по названию из sql или pg_catalog (int4, int8, bool, ...)
+     * @param typeName название типа
+     * @return тип, null для неизвестных типов
+     */
+    public static ColumnType of(String typeName) {
+        if (typeName == null) return null;
+        return switch (typeName.toLowerCase()) {
+            case "boolean", "bool" -> BOOLEAN;
+            case "integer", "int", "int4" -> INTEGER;
+            case "bigint", "int8" -> BIGINT;
+            case "numeric", "decimal" -> NUMERIC;
+            case "timestamp", "timestamp without time zone" -> TIMESTAMP;
+            case "varchar", "character varying", "text" -> VARCHAR;
+            case "jsonb" -> JSONB;
+            default -> null;
+        };
+    }
+
+    /**
+     * Самый узкий тип, в котором значение хранится без потерь
+     * @param value значение из xml
+     * @return тип значения
+     */
+    public static ColumnType infer(String value) {
+        if (value.equals("true") || value.equals("false")) return BOOLEAN;
+        if (INTEGER_PATTERN.matcher(value).matches()) {
+            // 10 цифр и знак
+            if (value.length() <= 11) {
+                long number = Long.parseLong(value);
+                if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) return INTEGER;
+            }
+            return value.length() <= 19 && fitsLong(value) ? BIGINT : NUMERIC;
+        }
+        if (NUMERIC_PATTERN.matcher(value).matches() && !NEGATIVE_ZERO_PATTERN.matcher(value).matches()) return NUMERIC;
+        if (TIMESTAMP_PATTERN.matcher(value).matches() && isValidTimestamp(value)) return TIMESTAMP;
+        return VARCHAR;
+    }
+
+    /**
+     * Общий тип, в котором хранятся значения обоих типов
+     */
+    public ColumnType widen(ColumnType other) {
+        if (this == other) return this;
+        if (numericRank >= 0 && other.numericRank >= 0) return numericRank > other.numericRank ? this : other;
+        return VARCHAR;
+    }
+
+    /**
+     * @return true, если значения типа other хранятся в этом типе без потерь
+     */
+    public boolean holds(ColumnType other) {
+        return widen(other) == this;
+    }
+
+    private static boolean fitsLong(String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isValidTimestamp(String value) {
+        String iso = value.replace(' ', 'T');
+        try {
+            LocalDateTime.parse(iso.length() == 16 ? iso + ":00" : iso);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.schema;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Кэш схем таблиц из бд.
+ * Схемы всех нужных таблиц загружаются одним запросом к pg_catalog (вместо DatabaseMetaData
+ * с отдельными запросами на каждую таблицу) и хранятся до вызова invalidate/refresh.
+ * Загружаются только таблицы, которые запрашивались (таблицы из xml)
+ */
+public class SchemaRegistry {
+    private static final String SCHEMAS_SQL = """
+            SELECT c.relname AS table_name, a.attname AS column_name, t.typname AS type_name,
+                   EXISTS (SELECT 1 FROM pg_catalog.pg_index i
+                           WHERE i.indrelid = c.oid AND i.indisprimary AND a.attnum = ANY (i.indkey)) AS is_primary
+            FROM pg_catalog.pg_class c
+            JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace
+            JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped
+            JOIN pg_catalog.pg_type t ON t.oid = a.atttypid
+            WHERE n.nspname = ? AND c.relname = ANY (?) AND c.relkind IN ('r', 'p')
+            """;
+
+    private final DataSource dataSource;
+    private final String schemaName;
+    // Таблицы, схемы которых запрашивались; при перезагрузке читаются все сразу
+    private final Set<String> trackedTables = new LinkedHashSet<>();
+    // Загруженные схемы; отсутствие таблицы в бд хранится как Optional.empty()
+    private final Map<String, Optional<TableSchema>> cache = new HashMap<>();
+
+    /**
+     * @param dataSource пул соединений с бд
+     * @param schemaName схема бд, в которой находятся таблицы
+     */
+    public SchemaRegistry(DataSource dataSource, String schemaName) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+    }
+
+    /**
+     * Возвращает схему таблицы из бд
+     * @param tableName название таблицы
+     * @return схема таблицы, null если таблицы нет в бд
+     */
+    public synchronized TableSchema get(String tableName) throws SQLException {
+        return getAll(List.of(tableName)).get(tableName);
+    }
+
+    /**
+     * Возвращает схемы таблиц из бд, незагруженные схемы читаются одним запросом
+     * @param tableNames названия таблиц
+     * @return схемы существующих в бд таблиц
+     */
+    public synchronized Map<String, TableSchema> getAll(Collection<String> tableNames) throws SQLException {
+        trackedTables.addAll(tableNames);
+        if (!cache.keySet().containsAll(tableNames)) {
+            List<String> missing = trackedTables.stream().filter(t -> !cache.containsKey(t)).toList();
+            cache.putAll(load(missing));
+        }
+
+        Map<String, TableSchema> result = new LinkedHashMap<>();
+        for (String tableName : tableNames) cache.get(tableName).ifPresent(schema -> result.put(tableName, schema));
+        return result;
+    }
+
+    /**
+     * Сбрасывает схему таблицы (после выполнения DDL)
+     * @param tableName название таблицы
+     */
+    public synchronized void invalidate(String tableName) {
+        cache.remove(tableName);
+    }
+
+    /**
+     * Перечитывает схемы всех запрашивавшихся таблиц (например, после изменения таблиц в обход сервиса)
+     */
+    public synchronized void refresh() throws SQLException {
+        cache.clear();
+        cache.putAll(load(new ArrayList<>(trackedTables)));
+    }
+
+    private Map<String, Optional<TableSchema>> load(List<String> tableNames) throws SQLException {
+        Map<String, TableSchema> schemas = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(SCHEMAS_SQL)) {
+            Array names = connection.createArrayOf("varchar", tableNames.toArray());
+            stmt.setString(1, schemaName);
+            stmt.setArray(2, names);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    String tableName = resultSet.getString("table_name");
+                    String columnName = resultSet.getString("column_name");
+                    // Формируем ограничения (constraints)
+                    String constraints = resultSet.getBoolean("is_primary") ? "PRIMARY KEY" : "";
+                    schemas.computeIfAbsent(tableName, TableSchema::new)
+                            .addColumn(columnName.toLowerCase(), resultSet.getString("type_name"), constraints);
+                }
+            }
+        }
+
+        Map<String, Optional<TableSchema>> result = new HashMap<>();
+        for (String tableName : tableNames) {
+            TableSchema schema = schemas.get(tableName);
+            if (schema != null) schema.sortColumns();
+            result.put(tableName, Optional.ofNullable(schema));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package org.example.schema;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Секционирование таблицы по одной колонке: HASH (modulus секций &lt;таблица&gt;_p0..p&lt;modulus-1&gt;)
+ * или LIST (секции &lt;таблица&gt;_&lt;суффикс&gt; с перечисленными значениями и секция &lt;таблица&gt;_default для остальных).
+ * Первичный ключ секционированной таблицы должен включать ключ секционирования, поэтому при ключе, отличном от id,
+ * первичный ключ - (id, ключ), а в каждой секции дополнительно строится уникальный индекс по id
+ */
+public final class TablePartitioning {
+    public enum Method { HASH, LIST }
+
+    private final Method method;
+    private final String column;
+    private final int modulus;
+    // суффикс секции -> значения ключа
+    private final Map<String, List<String>> lists;
+
+    private TablePartitioning(Method method, String column, int modulus, Map<String, List<String>> lists) {
+        this.method = method;
+        this.column = column.toLowerCase();
+        this.modulus = modulus;
+        this.lists = lists;
+    }
+
+    /**
+     * @param column ключ секционирования
+     * @param modulus количество секций
+     */
+    public static TablePartitioning hash(String column, int modulus) {
+        if (modulus < 1) throw new IllegalArgumentException("modulus must be positive");
+        return new TablePartitioning(Method.HASH, column, modulus, Map.of());
+    }
+
+    /**
+     * @param column ключ секционирования
+     * @param partitions суффикс названия секции -> значения ключа в секции
+     */
+    public static TablePartitioning list(String column, Map<String, List<String>> partitions) {
+        if (partitions.containsKey("default")) throw new IllegalArgumentException("Partition suffix default is reserved");
+        return new TablePartitioning(Method.LIST, column, 0, new LinkedHashMap<>(partitions));
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * Строка переходит в другую секцию, если в фиде изменился её ключ секционирования, а id остался прежним:
+     * удаление из старой секции и вставка в новую должны фиксироваться вместе
+     * @return может ли строка с тем же id оказаться в другой секции (ключ секционирования - не id)
+     */
+    public boolean rowsCanMove() {
+        return !column.equals("id");
+    }
+
+    /**
+     * @return названия секций таблицы
+     */
+    public List<String> getPartitionNames(String tableName) {
+        List<String> names = new ArrayList<>();
+        if (method == Method.HASH) {
+            for (int i = 0; i < modulus; i++) names.add(tableName + "_p" + i);
+        } else {
+            lists.keySet().forEach(suffix -> names.add(tableName + "_" + suffix));
+            names.add(tableName + "_default");
+        }
+        return names;
+    }
+
+    /**
+     * @return часть CREATE TABLE после списка колонок
+     */
+    public String partitionBySql() {
+        return "PARTITION BY " + method + " (" + column + ")";
+    }
+
+    /**
+     * Создание секций таблицы (существующие секции не меняются)
+     * @param tableName название секционированной таблицы
+     * @return sql создания каждой секции и её уникального индекса по id
+     */
+    public List<String> partitionsSql(String tableName) {
+        List<String> sqlList = new ArrayList<>();
+        List<String> names = getPartitionNames(tableName);
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            String bounds;
+            if (method == Method.HASH) {
+                bounds = "FOR VALUES WITH (MODULUS " + modulus + ", REMAINDER " + i + ")";
+            } else if (i < lists.size()) {
+                bounds = lists.get(name.substring(tableName.length() + 1)).stream()
+                        .map(value -> "'" + value.replace("'", "''") + "'")
+                        .collect(Collectors.joining(", ", "FOR VALUES IN (", ")"));
+            } else {
+                bounds = "DEFAULT";
+            }
+            sqlList.add("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + tableName + " " + bounds);
+            // Слияние секции выполняется через ON CONFLICT (id)
+            if (!column.equals("id")) sqlList.add("CREATE UNIQUE INDEX IF NOT EXISTS " + name + "_id_key ON " + name + " (id)");
+        }
+        return sqlList;
+    }
+}
@@ -4,8 +4,14 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class TableSchema {
+    // jsonb колонка с параметрами offer и префикс колонок, в которые вынесены частые параметры
+    public static final String PARAM_COLUMN = "param";
+    public static final String PARAM_COLUMN_PREFIX = "param_";
+
     String tableName;
     List<Column> columns = new ArrayList<>();
+    // null для обычной таблицы
+    TablePartitioning partitioning;
 
     public TableSchema(String tableName) {
         this.tableName = tableName;
@@ -13,38 +19,208 @@ public class TableSchema {
 
     record Column(String name, String type, String constraints) {}
 
+    /**
+     * Возвращает схему таблицы по статистике столбцов из xml.
+     * Тип колонки - самый узкий тип, вмещающий все значения столбца в этой версии фида
+     * @param tableName название таблицы
+     * @param columnStats статистика столбцов (ключи тегов и атрибутов в нижнем регистре)
+     * @return схема таблицы
+     */
+    public static TableSchema infer(String tableName, Map<String, ColumnStats> columnStats) {
+        TableSchema tableSchema = new TableSchema(tableName);
+        columnStats.forEach((key, stats) -> {
+            ColumnType columnType = stats.type() != null ? stats.type() : ColumnType.VARCHAR;
+            String type = Objects.equals(key, PARAM_COLUMN) ? "jsonb" : columnType.getSqlName();
+            String constraints = Objects.equals(key, "id") ? "PRIMARY KEY" : "";
+            tableSchema.addColumn(key, type, constraints);
+        });
+        // Сортировка колонок для сохранения их порядка
+        tableSchema.sortColumns();
+        return tableSchema;
+    }
+
     public void addColumn(String name, String type, String constraints) {
-        this.columns.add(new Column(name, type, constraints));
+        // Названия типов из pg_catalog (int4, bool, ...) приводятся к названиям из sql
+        ColumnType columnType = ColumnType.of(type);
+        this.columns.add(new Column(name, columnType != null ? columnType.getSqlName() : type, constraints));
     }
 
     public String toSql() {
+        return toSql(tableName, true);
+    }
+
+    /**
+     * Создание таблицы с колонками этой схемы
+     * @param tableName название создаваемой таблицы
+     * @param withConstraints добавлять ли ограничения колонок (без них индексы строятся после загрузки данных)
+     * @return sql создания таблицы
+     */
+    public String toSql(String tableName, boolean withConstraints) {
+        // Составной первичный ключ (id и ключ секционирования) задаётся ограничением таблицы
+        List<String> primaryKey = getPrimaryKeyColumns();
+        boolean tablePrimaryKey = withConstraints && primaryKey.size() > 1;
         String cols = columns.stream()
-                .map(c -> c.name + " " + c.type + " " + (c.constraints != null ? c.constraints : ""))
+                .map(c -> c.name + " " + c.type + " " + (withConstraints && !tablePrimaryKey && c.constraints != null ? c.constraints : ""))
                 .collect(Collectors.joining(",\n    "));
+        if (tablePrimaryKey) cols += ",\n    PRIMARY KEY (" + String.join(", ", primaryKey) + ")";
+        String partitionBy = partitioning != null ? " " + partitioning.partitionBySql() : "";
 
-        return String.format("CREATE TABLE %s (\n    %s\n);", tableName, cols);
+        return String.format("CREATE TABLE %s (\n    %s\n)%s;", tableName, cols, partitionBy);
     }
 
-    public String newColumnsSql(TableSchema newSchema) throws Exception {
-        if (this.equals(newSchema)) return null;
+    /**
+     * Схема секционированной таблицы: ключ секционирования входит в первичный ключ (как в схеме из бд)
+     * @param partitioning секционирование, null для обычной таблицы
+     * @return схема с секционированием (эта схема, если partitioning null)
+     */
+    public TableSchema withPartitioning(TablePartitioning partitioning) {
+        if (partitioning == null) return this;
+        TableSchema result = new TableSchema(tableName);
+        for (Column column : columns) {
+            result.columns.add(column.name.equals(partitioning.getColumn())
+                    ? new Column(column.name, column.type, "PRIMARY KEY")
+                    : column);
+        }
+        result.partitioning = partitioning;
+        return result;
+    }
+
+    /**
+     * @return секционирование таблицы, null для обычной таблицы
+     */
+    public TablePartitioning getPartitioning() {
+        return partitioning;
+    }
 
-        Set<String> currentNames = this.columns.stream()
+    /**
+     * Схема секции: те же колонки без секционирования, для загрузки строк секции как отдельной таблицы
+     * @param partitionName название секции
+     */
+    public TableSchema forPartition(String partitionName) {
+        TableSchema result = new TableSchema(partitionName);
+        result.columns.addAll(columns);
+        return result;
+    }
+
+    /**
+     * @return колонки первичного ключа
+     */
+    public List<String> getPrimaryKeyColumns() {
+        return columns.stream()
+                .filter(c -> c.constraints != null && c.constraints.contains("PRIMARY KEY"))
                 .map(Column::name)
-                .collect(Collectors.toSet());
+                .toList();
+    }
+
+    /**
+     * Вторичные индексы таблицы: GIN индекс (jsonb_path_ops) по колонке param для запросов с @>
+     * и B-tree индексы по колонкам, в которые вынесены параметры
+     * @param paramIndex строить ли GIN индекс по param
+     * @return суффикс названия индекса (название - &lt;таблица&gt;_&lt;суффикс&gt;) -> метод и колонки индекса
+     */
+    public Map<String, String> getIndexes(boolean paramIndex) {
+        Map<String, String> indexes = new LinkedHashMap<>();
+        for (Column column : columns) {
+            if (paramIndex && column.name.equals(PARAM_COLUMN) && column.type.equals("jsonb")) {
+                indexes.put("param_gin", "USING gin (" + PARAM_COLUMN + " jsonb_path_ops)");
+            } else if (column.name.startsWith(PARAM_COLUMN_PREFIX)) {
+                indexes.put(column.name + "_idx", "(" + column.name + ")");
+            }
+        }
+        return indexes;
+    }
+
+    public String newColumnsSql(TableSchema newSchema) throws Exception {
+        if (canLoad(newSchema)) return null;
+
+        Map<String, Column> currentColumns = columnsByName();
 
         List<Column> newColumns = newSchema.columns.stream()
-                .filter(c -> !currentNames.contains(c.name()))
+                .filter(c -> !currentColumns.containsKey(c.name()))
                 .toList();
 
-        if (newColumns.isEmpty()) {
+        // Колонки, значения из xml для которых не помещаются в тип из бд: тип только расширяется
+        List<Column> widenedColumns = newSchema.columns.stream()
+                .filter(c -> currentColumns.containsKey(c.name()) && !holds(currentColumns.get(c.name()).type, c.type))
+                .map(c -> new Column(c.name, widen(currentColumns.get(c.name()).type, c.type), c.constraints))
+                .toList();
+
+        if (newColumns.isEmpty() && widenedColumns.isEmpty()) {
             throw new Exception("В таблице из xml должны быть все колонки из бд");
         }
 
-        String cols = newColumns.stream()
-                .map(c -> "ADD COLUMN " + c.name + " " + c.type + " " + (c.constraints != null ? c.constraints : ""))
-                .collect(Collectors.joining(",\n    "));
+        List<String> changes = new ArrayList<>();
+        newColumns.forEach(c -> changes.add("ADD COLUMN " + c.name + " " + c.type + " " + (c.constraints != null ? c.constraints : "")));
+        widenedColumns.forEach(c -> changes.add("ALTER COLUMN " + c.name + " TYPE " + c.type + " USING " + c.name + "::" + c.type));
+
+        return String.format("ALTER TABLE %s\n    %s;", tableName, String.join(",\n    ", changes));
+    }
+
+    /**
+     * Схема таблицы после выполнения newColumnsSql: добавлены новые колонки и расширены типы существующих
+     * @param newSchema схема из xml
+     * @return схема с изменениями (эта схема, если изменения не нужны)
+     * @throws Exception если в xml нет колонок из бд, а добавлять и расширять нечего
+     */
+    public TableSchema withChanges(TableSchema newSchema) throws Exception {
+        if (newColumnsSql(newSchema) == null) return this;
+
+        Map<String, Column> newColumns = newSchema.columnsByName();
+        TableSchema result = new TableSchema(tableName);
+        for (Column column : columns) {
+            Column newColumn = newColumns.get(column.name);
+            result.columns.add(newColumn != null && !holds(column.type, newColumn.type)
+                    ? new Column(column.name, widen(column.type, newColumn.type), column.constraints)
+                    : column);
+        }
+        Map<String, Column> currentColumns = columnsByName();
+        newSchema.columns.stream().filter(c -> !currentColumns.containsKey(c.name)).forEach(result.columns::add);
+        result.sortColumns();
+        return result;
+    }
+
+    /**
+     * Проверяет, что данные со схемой newSchema загружаются в таблицу с этой схемой (из бд) без изменения таблицы:
+     * совпадают колонки и ограничения, а тип каждой колонки в бд вмещает значения из xml.
+     * Более широкий тип в бд допустим, поэтому выбранный однажды тип не сужается в следующих версиях фида
+     * @param newSchema схема из xml
+     */
+    public boolean canLoad(TableSchema newSchema) {
+        if (!Objects.equals(tableName, newSchema.tableName) || columns.size() != newSchema.columns.size()) return false;
+        Map<String, Column> currentColumns = columnsByName();
+        for (Column column : newSchema.columns) {
+            Column current = currentColumns.get(column.name);
+            if (current == null || !Objects.equals(current.constraints, column.constraints)
+                    || !holds(current.type, column.type)) return false;
+        }
+        return true;
+    }
+
+    public String getColumnType(String name) {
+        Column column = columnsByName().get(name);
+        return column != null ? column.type : null;
+    }
+
+    private Map<String, Column> columnsByName() {
+        return columns.stream().collect(Collectors.toMap(Column::name, c -> c, (a, b) -> a));
+    }
+
+    private static boolean holds(String type, String newType) {
+        ColumnType columnType = ColumnType.of(type);
+        ColumnType newColumnType = ColumnType.of(newType);
+        if (columnType == null || newColumnType == null) return Objects.equals(type, newType);
+        return columnType.holds(newColumnType);
+    }
+
+    private static String widen(String type, String newType) {
+        ColumnType columnType = ColumnType.of(type);
+        ColumnType newColumnType = ColumnType.of(newType);
+        if (columnType == null || newColumnType == null) return ColumnType.VARCHAR.getSqlName();
+        return columnType.widen(newColumnType).getSqlName();
+    }
 
-        return String.format("ALTER TABLE %s\n    %s;", tableName, cols);
+    public String getTableName() {
+        return tableName;
     }
 
     public ArrayList<String> getColumnNames() {
@@ -0,0 +1,924 @@
+package org.example.service;
+
+import org.example.catalog.RowFingerprint;
+import org.example.catalog.RowListener;
+import org.example.catalog.RowSource;
+import org.example.changes.TableChanges;
+import org.example.metrics.TableMetrics;
+import org.example.schema.TablePartitioning;
+import org.example.schema.TableSchema;
+import org.json.JSONObject;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+/**
+ * Загрузка таблицы через COPY во временную таблицу с последующим слиянием в основную.
+ * Размер sql не зависит от количества строк: строки потоком передаются серверу в формате csv.
+ * Для каждой строки вычисляется отпечаток содержимого, отпечатки хранятся в таблице xml_row_hashes,
+ * поэтому в основную таблицу записываются только новые и изменившиеся строки.
+ * Транзакцией управляет вызывающая сторона.
+ */
+class BulkLoader {
+    static final String ROW_HASHES_TABLE = "xml_row_hashes";
+    // Контрольные точки возобновляемой загрузки: версия фида и количество строк, зафиксированных в промежуточной таблице
+    static final String CHECKPOINTS_TABLE = "xml_checkpoints";
+    // Версия фида, из которой загружена каждая таблица; пишется в транзакции с данными таблицы
+    static final String SYNCED_VERSIONS_TABLE = "xml_synced_versions";
+    // Колонка временной таблицы с отпечатком строки
+    private static final String ROW_HASH_COLUMN = "xml_row_hash";
+    // Размер буфера, после заполнения которого данные отправляются в COPY
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Connection connection;
+    private final TableMetrics metrics;
+    private final boolean captureChanges;
+    private TableChanges changes;
+
+    /**
+     * @param connection соединение с бд
+     * @param metrics метрики обновления таблицы
+     */
+    BulkLoader(Connection connection, TableMetrics metrics) {
+        this(connection, metrics, false);
+    }
+
+    /**
+     * @param connection соединение с бд
+     * @param metrics метрики обновления таблицы
+     * @param captureChanges собирать ли id добавленных, изменённых и удалённых строк (см. getChanges)
+     */
+    BulkLoader(Connection connection, TableMetrics metrics, boolean captureChanges) {
+        this.connection = connection;
+        this.metrics = metrics;
+        this.captureChanges = captureChanges;
+    }
+
+    /**
+     * @return изменения последней загруженной таблицы, null если изменения не собирались
+     */
+    TableChanges getChanges() {
+        return changes;
+    }
+
+    /**
+     * Создаёт служебные таблицы отпечатков строк и загруженных версий фида.
+     * Вызывается один раз перед обновлением таблиц, чтобы параллельные загрузки не создавали их одновременно
+     * @param connection соединение с бд (в режиме autocommit или с последующей фиксацией)
+     */
+    static void createServiceTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + ROW_HASHES_TABLE + " (\n" +
+                    "    table_name varchar,\n    id varchar,\n    row_hash bigint,\n" +
+                    "    PRIMARY KEY (table_name, id)\n)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + SYNCED_VERSIONS_TABLE + " (\n" +
+                    "    table_name varchar PRIMARY KEY,\n    feed_version varchar,\n    feed_tables varchar[],\n" +
+                    "    synced_at timestamp DEFAULT now()\n)");
+        }
+    }
+
+    /**
+     * Запоминает, что таблица загружена из версии фида. Вызывается в транзакции загрузки таблицы,
+     * поэтому отметка фиксируется и откатывается вместе с данными
+     * @param tableName название таблицы
+     * @param version версия фида
+     * @param feedTables все таблицы этой версии фида: версия загружена, когда загружены все они
+     */
+    static void markSynced(Connection connection, String tableName, String version,
+                           Collection<String> feedTables) throws SQLException {
+        try (PreparedStatement upsert = connection.prepareStatement(
+                "INSERT INTO " + SYNCED_VERSIONS_TABLE + " (table_name, feed_version, feed_tables) VALUES (?, ?, ?)\n" +
+                "ON CONFLICT (table_name) DO UPDATE SET feed_version = EXCLUDED.feed_version,\n" +
+                "    feed_tables = EXCLUDED.feed_tables, synced_at = now()")) {
+            upsert.setString(1, tableName);
+            upsert.setString(2, version);
+            upsert.setArray(3, connection.createArrayOf("varchar", feedTables.toArray()));
+            upsert.executeUpdate();
+        }
+    }
+
+    /**
+     * @return версия фида, из которой загружены все её таблицы (и все они есть в бд), null если такой версии нет
+     * (бд пустая, восстановлена из копии без части таблиц или загрузка части таблиц не удалась)
+     */
+    static String syncedVersion(Connection connection) throws SQLException {
+        if (!exists(connection, SYNCED_VERSIONS_TABLE)) return null;
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(
+                     "SELECT v.feed_version FROM " + SYNCED_VERSIONS_TABLE + " v\n" +
+                     "WHERE NOT EXISTS (SELECT 1 FROM unnest(v.feed_tables) AS t (table_name)\n" +
+                     "    WHERE NOT EXISTS (SELECT 1 FROM " + SYNCED_VERSIONS_TABLE + " s\n" +
+                     "        WHERE s.table_name = t.table_name AND s.feed_version = v.feed_version\n" +
+                     "          AND to_regclass(s.table_name) IS NOT NULL))\n" +
+                     "ORDER BY v.synced_at DESC LIMIT 1")) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    /**
+     * Удаляет отметки о загруженных версиях фида, если таблица отметок уже создана
+     */
+    static void clearSyncedVersions(Connection connection) throws SQLException {
+        if (!exists(connection, SYNCED_VERSIONS_TABLE)) return;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM " + SYNCED_VERSIONS_TABLE);
+        }
+    }
+
+    /**
+     * Удаляет отпечатки строк таблиц. Нужно после DDL и после изменения таблиц в обход сервиса:
+     * отпечаток описывает строку xml, а не строку в бд, и без удаления неизменившиеся в xml строки
+     * не записываются, например, в добавленную колонку
+     * @param connection соединение с бд (в транзакции с DDL)
+     * @param tableNames названия таблиц (и секций)
+     */
+    static void clearRowHashes(Connection connection, Collection<String> tableNames) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM " + ROW_HASHES_TABLE + " WHERE table_name = ANY (?)")) {
+            delete.setArray(1, connection.createArrayOf("varchar", tableNames.toArray()));
+            delete.executeUpdate();
+        }
+    }
+
+    /**
+     * Удаляет отпечатки строк всех таблиц схемы, если таблица отпечатков уже создана
+     * @param connection соединение с бд
+     */
+    static void clearRowHashes(Connection connection) throws SQLException {
+        if (!exists(connection, ROW_HASHES_TABLE)) return;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM " + ROW_HASHES_TABLE);
+        }
+    }
+
+    private static boolean exists(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Создаёт таблицу контрольных точек возобновляемой загрузки
+     * @param connection соединение с бд (в режиме autocommit или с последующей фиксацией)
+     */
+    static void createCheckpointsTable(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + CHECKPOINTS_TABLE + " (\n" +
+                    "    table_name varchar PRIMARY KEY,\n    feed_version varchar,\n    schema_sql varchar,\n" +
+                    "    rows_committed bigint,\n    updated_at timestamp DEFAULT now()\n)");
+        }
+    }
+
+    /**
+     * Загружает строки в таблицу: удаляет записи, которых нет в xml, вставляет новые и обновляет изменившиеся
+     * @param tableSchema схема таблицы
+     * @param create нужно ли создать таблицу
+     * @param rows строки таблицы из xml
+     * @return количество добавленных, изменённых, неизменившихся и удалённых строк
+     */
+    SyncSummary load(TableSchema tableSchema, boolean create, RowSource rows) throws Exception {
+        String tableName = tableSchema.getTableName();
+        String stageName = stageName(tableName);
+        List<String> columnNames = tableSchema.getColumnNames();
+
+        long start = System.nanoTime();
+        createStage(tableSchema, create);
+        long total = copy(stageName, columnNames, rows);
+        return analyzeAndMerge(tableName, stageName, columnNames, total, start);
+    }
+
+    /**
+     * Полная перезагрузка таблицы через теневую таблицу: строки загружаются в новую таблицу xml_shadow_&lt;table&gt;,
+     * после загрузки строится первичный ключ и собирается статистика, затем теневая таблица заменяет основную
+     * (DROP и RENAME в конце транзакции). Основная таблица блокируется только на время замены и фиксации,
+     * читатели до этого видят прежние данные, а ошибка загрузки не затрагивает основную таблицу.
+     * Вторичные индексы indexes строятся на теневой таблице и переименовываются вместе с ней.
+     * Индексы, права и представления основной таблицы, созданные в обход сервиса, не переносятся
+     * @param tableSchema схема таблицы после изменений (колонки и типы теневой таблицы)
+     * @param rows строки таблицы из xml
+     * @param indexes вторичные индексы таблицы (TableSchema.getIndexes)
+     * @return количество добавленных, изменённых, неизменившихся и удалённых строк (по отпечаткам строк)
+     */
+    SyncSummary reload(TableSchema tableSchema, RowSource rows, Map<String, String> indexes) throws Exception {
+        String tableName = tableSchema.getTableName();
+        String shadowName = shadowName(tableName);
+        String stageName = stageName(tableName);
+        List<String> columnNames = tableSchema.getColumnNames();
+        String columns = String.join(", ", columnNames);
+
+        long start = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            String createSql = tableSchema.toSql(shadowName, false);
+            metrics.addPayloadBytes(createSql.length());
+            // Теневая таблица могла остаться после прерванной загрузки вне транзакции
+            stmt.execute("DROP TABLE IF EXISTS " + shadowName);
+            stmt.execute(createSql);
+            stmt.execute("CREATE TEMP TABLE " + stageName + " (LIKE " + shadowName + " INCLUDING DEFAULTS, " +
+                    ROW_HASH_COLUMN + " bigint) ON COMMIT DROP");
+        }
+        long total = copy(stageName, columnNames, rows);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO " + shadowName + " (" + columns + ") SELECT " + columns + " FROM " + stageName);
+            stmt.execute("ANALYZE " + stageName);
+        }
+        metrics.setRows(total);
+        metrics.addStageNanos(System.nanoTime() - start);
+
+        long ddlStart = System.nanoTime();
+        List<String> primaryKey = tableSchema.getPrimaryKeyColumns();
+        try (Statement stmt = connection.createStatement()) {
+            // Индекс строится один раз по загруженным данным, а не обновляется на каждой строке COPY
+            if (!primaryKey.isEmpty()) {
+                stmt.execute("ALTER TABLE " + shadowName + " ADD CONSTRAINT " + shadowName + "_pkey PRIMARY KEY (" +
+                        String.join(", ", primaryKey) + ")");
+            }
+        }
+        metrics.addDdlNanos(System.nanoTime() - ddlStart);
+        createIndexes(shadowName, indexes);
+        long analyzeStart = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            // Статистика собирается до замены, чтобы запросы к новой таблице сразу получили верные планы
+            stmt.execute("ANALYZE " + shadowName);
+        }
+        metrics.addDdlNanos(System.nanoTime() - analyzeStart);
+
+        long mergeStart = System.nanoTime();
+        if (captureChanges) {
+            boolean liveExists = !liveColumns(tableName).isEmpty();
+            List<String> deletedIds = new ArrayList<>();
+            if (liveExists) {
+                try (Statement stmt = connection.createStatement();
+                     ResultSet resultSet = stmt.executeQuery("SELECT t.id::varchar FROM " + tableName + " t\n" +
+                             "WHERE NOT EXISTS (SELECT 1 FROM " + stageName + " s WHERE s.id = t.id)")) {
+                    while (resultSet.next()) deletedIds.add(resultSet.getString(1));
+                }
+            }
+            captureChanges(tableName, stageName, columnNames, deletedIds, liveExists);
+        }
+        SyncSummary summary = reloadSummary(tableName, stageName, total);
+        swap(tableName, shadowName, !primaryKey.isEmpty(), indexes.keySet());
+        metrics.addMergeNanos(System.nanoTime() - mergeStart);
+        return summary;
+    }
+
+    /**
+     * Собирает id новых и изменившихся строк временной таблицы (те же строки, что записывает upsert)
+     * и названия колонок, значения которых отличаются от основной таблицы
+     * @param liveExists есть ли основная таблица (иначе все строки новые)
+     */
+    private void captureChanges(String tableName, String stageName, List<String> columnNames, List<String> deletedIds,
+                                boolean liveExists) throws SQLException {
+        List<String> inserted = new ArrayList<>();
+        Map<String, List<String>> updated = new LinkedHashMap<>();
+        String sql;
+        if (liveExists) {
+            Set<String> liveColumns = liveColumns(tableName);
+            // Сравнение в текстовом виде: при перезагрузке через теневую таблицу типы колонок могут различаться
+            String changedColumns = columnNames.stream()
+                    .filter(c -> !c.equals("id"))
+                    .map(c -> liveColumns.contains(c)
+                            ? "CASE WHEN s." + c + "::text IS DISTINCT FROM t." + c + "::text THEN '" + c + "' END"
+                            : "'" + c + "'")
+                    .collect(Collectors.joining(", ", "array_remove(ARRAY[", "]::text[], NULL)"));
+            sql = "SELECT s.id::varchar AS id, t.id IS NULL AS is_insert, " + changedColumns + " AS changed_columns\n" +
+                    "FROM " + stageName + " s LEFT JOIN " + tableName + " t ON t.id = s.id\n" +
+                    "WHERE t.id IS NULL OR NOT EXISTS (SELECT 1 FROM " + ROW_HASHES_TABLE + " h\n" +
+                    "    WHERE h.table_name = ? AND h.id = s.id::varchar AND h.row_hash = s." + ROW_HASH_COLUMN + ")";
+        } else {
+            sql = "SELECT s.id::varchar AS id, true AS is_insert, NULL::text[] AS changed_columns FROM " + stageName + " s";
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            if (liveExists) statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String id = resultSet.getString("id");
+                    if (resultSet.getBoolean("is_insert")) {
+                        inserted.add(id);
+                    } else {
+                        Array columns = resultSet.getArray("changed_columns");
+                        updated.put(id, columns == null ? List.of() : List.of((String[]) columns.getArray()));
+                    }
+                }
+            }
+        }
+        changes = new TableChanges(tableName, inserted, updated, deletedIds);
+    }
+
+    private Set<String> liveColumns(String tableName) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT attname FROM pg_catalog.pg_attribute WHERE attrelid = to_regclass(?) AND attnum > 0 AND NOT attisdropped")) {
+            statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) columns.add(resultSet.getString(1));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Считает изменения по отпечаткам строк и заменяет отпечатки таблицы отпечатками загруженных строк
+     */
+    private SyncSummary reloadSummary(String tableName, String stageName, long total) throws SQLException {
+        long inserted = 0;
+        long updated = 0;
+        long deleted;
+        try (PreparedStatement changes = connection.prepareStatement(
+                "SELECT count(*) FILTER (WHERE h.id IS NULL) AS inserted,\n" +
+                "       count(*) FILTER (WHERE h.id IS NOT NULL AND h.row_hash IS DISTINCT FROM s." + ROW_HASH_COLUMN + ") AS updated\n" +
+                "FROM " + stageName + " s\n" +
+                "LEFT JOIN " + ROW_HASHES_TABLE + " h ON h.table_name = ? AND h.id = s.id::varchar");
+             PreparedStatement deleteHashes = connection.prepareStatement(
+                     "DELETE FROM " + ROW_HASHES_TABLE + " h\n" +
+                     "WHERE h.table_name = ? AND NOT EXISTS (SELECT 1 FROM " + stageName + " s WHERE s.id::varchar = h.id)");
+             PreparedStatement upsertHashes = connection.prepareStatement(upsertHashesSql(stageName))) {
+            changes.setString(1, tableName);
+            try (ResultSet resultSet = changes.executeQuery()) {
+                if (resultSet.next()) {
+                    inserted = resultSet.getLong("inserted");
+                    updated = resultSet.getLong("updated");
+                }
+            }
+            deleteHashes.setString(1, tableName);
+            deleted = deleteHashes.executeUpdate();
+            upsertHashes.setString(1, tableName);
+            upsertHashes.executeUpdate();
+        }
+        return new SyncSummary(inserted, updated, total - inserted - updated, deleted, Duration.ZERO);
+    }
+
+    /**
+     * Заменяет основную таблицу теневой. Блокировка основной таблицы удерживается до фиксации транзакции
+     */
+    private void swap(String tableName, String shadowName, boolean hasPrimaryKey, Set<String> indexSuffixes) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + tableName);
+            stmt.execute("ALTER TABLE " + shadowName + " RENAME TO " + tableName);
+            // Имя индекса первичного ключа как у таблицы, созданной через toSql
+            if (hasPrimaryKey) stmt.execute("ALTER TABLE " + tableName + " RENAME CONSTRAINT " + shadowName + "_pkey TO " + tableName + "_pkey");
+            // Имена вторичных индексов как у индексов, созданных createIndexes на основной таблице
+            for (String suffix : indexSuffixes) {
+                stmt.execute("ALTER INDEX " + shadowName + "_" + suffix + " RENAME TO " + tableName + "_" + suffix);
+            }
+        }
+    }
+
+    /**
+     * Создаёт секционированную таблицу (если её нет) и её недостающие секции
+     * @param tableSchema схема таблицы с секционированием
+     * @param create нужно ли создать таблицу
+     * @throws Exception если таблица уже есть в бд, но не секционирована
+     */
+    void createPartitions(TableSchema tableSchema, boolean create) throws Exception {
+        String tableName = tableSchema.getTableName();
+        long start = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            if (create) {
+                String createSql = tableSchema.toSql();
+                metrics.addPayloadBytes(createSql.length());
+                stmt.execute(createSql);
+            } else if (!isPartitioned(tableName)) {
+                throw new Exception("Table " + tableName + " exists and is not partitioned");
+            }
+            for (String sql : tableSchema.getPartitioning().partitionsSql(tableName)) {
+                metrics.addPayloadBytes(sql.length());
+                stmt.execute(sql);
+            }
+        }
+        metrics.addDdlNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Распределяет строки секционированной таблицы по секциям силами бд: строки одним проходом передаются через COPY
+     * в промежуточную таблицу xml_route_&lt;table&gt;, секционированную так же, как основная, и в памяти не хранятся.
+     * Секции затем сливаются каждая со своей секцией промежуточной таблицы (loadRouted).
+     * Промежуточная таблица не временная, чтобы секции могли загружаться на других соединениях,
+     * её секции не пишутся в журнал. Удаляется dropRoute
+     * @param tableSchema схема таблицы с секционированием, таблица и её секции уже созданы
+     * @param rows строки таблицы из xml
+     * @throws IllegalArgumentException если у строки нет значения ключа секционирования
+     */
+    void route(TableSchema tableSchema, RowSource rows) throws Exception {
+        String tableName = tableSchema.getTableName();
+        String routeName = routeName(tableName);
+        TablePartitioning partitioning = tableSchema.getPartitioning();
+        long start = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + routeName);
+            // Ключ секционирования того же типа, что и в основной таблице: от типа зависит хеш
+            stmt.execute("CREATE TABLE " + routeName + " (LIKE " + tableName + " INCLUDING DEFAULTS, " +
+                    ROW_HASH_COLUMN + " bigint) " + partitioning.partitionBySql());
+            for (String sql : partitioning.partitionsSql(routeName)) stmt.execute(sql);
+            for (String name : partitioning.getPartitionNames(routeName)) stmt.execute("ALTER TABLE " + name + " SET UNLOGGED");
+        }
+        metrics.addDdlNanos(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        String column = partitioning.getColumn();
+        copy(routeName, tableSchema.getColumnNames(), listener -> rows.forEachRow((name, row) -> {
+            // Без значения ключа строка попала бы в секцию по умолчанию или в секцию хеша null
+            if (row.get(column) == null) {
+                throw new IllegalArgumentException("Row id=" + row.get("id") + " of partitioned table " + tableName
+                        + " has no value of partition key " + column);
+            }
+            listener.row(name, row);
+        }));
+        metrics.addStageNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Сливает секцию с её секцией промежуточной таблицы route (отпечатки строк хранятся по названию секции)
+     * @param tableSchema схема секции (TableSchema.forPartition)
+     * @return количество добавленных, изменённых, неизменившихся и удалённых строк секции
+     */
+    SyncSummary loadRouted(TableSchema tableSchema) throws SQLException {
+        String tableName = tableSchema.getTableName();
+        // Секции промежуточной таблицы названы по секциям основной
+        String stageName = routeName(tableName);
+        long start = System.nanoTime();
+        long total;
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT count(*) FROM " + stageName)) {
+            resultSet.next();
+            total = resultSet.getLong(1);
+        }
+        return analyzeAndMerge(tableName, stageName, tableSchema.getColumnNames(), total, start);
+    }
+
+    /**
+     * Удаляет промежуточную таблицу route вместе с секциями
+     */
+    void dropRoute(String tableName) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + routeName(tableName));
+        }
+    }
+
+    private boolean isPartitioned(String tableName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT relkind = 'p' FROM pg_catalog.pg_class WHERE oid = to_regclass(?)")) {
+            statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Создаёт недостающие вторичные индексы таблицы. Индекс новой таблицы или новой колонки строится один раз
+     * по загруженным данным, существующие индексы дальше обновляются при слиянии
+     * @param tableName название таблицы
+     * @param indexes суффикс названия индекса -> метод и колонки индекса (TableSchema.getIndexes)
+     */
+    void createIndexes(String tableName, Map<String, String> indexes) throws SQLException {
+        if (indexes.isEmpty()) return;
+        long start = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            for (Map.Entry<String, String> index : indexes.entrySet()) {
+                String sql = "CREATE INDEX IF NOT EXISTS " + tableName + "_" + index.getKey() + " ON " + tableName + " " + index.getValue();
+                metrics.addPayloadBytes(sql.length());
+                stmt.execute(sql);
+            }
+        }
+        metrics.addDdlNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Начинает или продолжает возобновляемую загрузку: строки накапливаются в постоянной промежуточной таблице
+     * xml_resume_&lt;table&gt; пакетами, каждый пакет фиксируется вместе с контрольной точкой.
+     * Загрузка продолжается с контрольной точки, если она записана для той же версии фида и той же схемы,
+     * иначе промежуточная таблица создаётся заново. Фиксирует транзакцию
+     * @param tableSchema схема, с которой таблица будет загружена (после изменений)
+     * @param version версия фида, null если версия неизвестна (загрузка не возобновляется)
+     * @return количество строк, уже зафиксированных в промежуточной таблице
+     */
+    long beginResumable(TableSchema tableSchema, String version) throws SQLException {
+        String tableName = tableSchema.getTableName();
+        String resumeName = resumeName(tableName);
+        String schemaSql = tableSchema.toSql(resumeName, false);
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT feed_version, schema_sql, rows_committed, to_regclass(?) IS NOT NULL AS staged\n" +
+                "FROM " + CHECKPOINTS_TABLE + " WHERE table_name = ?")) {
+            select.setString(1, resumeName);
+            select.setString(2, tableName);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (version != null && resultSet.next() && resultSet.getBoolean("staged")
+                        && version.equals(resultSet.getString("feed_version"))
+                        && schemaSql.equals(resultSet.getString("schema_sql"))) {
+                    long committed = resultSet.getLong("rows_committed");
+                    connection.commit();
+                    return committed;
+                }
+            }
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + resumeName);
+            stmt.execute(schemaSql);
+            stmt.execute("ALTER TABLE " + resumeName + " ADD COLUMN " + ROW_HASH_COLUMN + " bigint");
+        }
+        try (PreparedStatement upsert = connection.prepareStatement(
+                "INSERT INTO " + CHECKPOINTS_TABLE + " (table_name, feed_version, schema_sql, rows_committed) VALUES (?, ?, ?, 0)\n" +
+                "ON CONFLICT (table_name) DO UPDATE SET feed_version = EXCLUDED.feed_version,\n" +
+                "    schema_sql = EXCLUDED.schema_sql, rows_committed = 0, updated_at = now()")) {
+            upsert.setString(1, tableName);
+            upsert.setString(2, version);
+            upsert.setString(3, schemaSql);
+            upsert.executeUpdate();
+        }
+        connection.commit();
+        return 0;
+    }
+
+    /**
+     * Передаёт строки в промежуточную таблицу пакетами по batchRows строк, каждый пакет фиксируется
+     * вместе с контрольной точкой. Первые offset строк (зафиксированные ранее) пропускаются
+     * @param tableSchema схема таблицы
+     * @param offset количество строк, уже зафиксированных в промежуточной таблице
+     * @param batchRows количество строк в пакете
+     * @param rows строки таблицы из xml (в том же порядке, что и при предыдущей попытке)
+     * @return общее количество строк таблицы
+     */
+    long copyResumable(TableSchema tableSchema, long offset, int batchRows, RowSource rows) throws Exception {
+        long start = System.nanoTime();
+        ResumableCopy copy = new ResumableCopy(tableSchema, offset, batchRows);
+        try {
+            rows.forEachRow(copy);
+            copy.commitBatch();
+        } finally {
+            copy.cancel();
+        }
+        metrics.setRows(copy.position);
+        metrics.addStageNanos(System.nanoTime() - start);
+        return copy.position;
+    }
+
+    /**
+     * Сливает промежуточную таблицу возобновляемой загрузки с основной, удаляет её и контрольную точку.
+     * Выполняется в транзакции вызывающей стороны, поэтому основная таблица меняется атомарно
+     * @param tableSchema схема таблицы
+     * @param create нужно ли создать таблицу
+     * @param total количество строк в промежуточной таблице
+     * @return количество добавленных, изменённых, неизменившихся и удалённых строк
+     */
+    SyncSummary publishResumable(TableSchema tableSchema, boolean create, long total) throws SQLException {
+        String tableName = tableSchema.getTableName();
+        String resumeName = resumeName(tableName);
+        if (create) {
+            try (Statement stmt = connection.createStatement()) {
+                String createSql = tableSchema.toSql();
+                metrics.addPayloadBytes(createSql.length());
+                stmt.execute(createSql);
+            }
+        }
+        SyncSummary summary = analyzeAndMerge(tableName, resumeName, tableSchema.getColumnNames(), total, System.nanoTime());
+        try (Statement stmt = connection.createStatement();
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM " + CHECKPOINTS_TABLE + " WHERE table_name = ?")) {
+            stmt.execute("DROP TABLE " + resumeName);
+            delete.setString(1, tableName);
+            delete.executeUpdate();
+        }
+        return summary;
+    }
+
+    /**
+     * Передача строк в промежуточную таблицу с фиксацией после каждого пакета
+     */
+    private final class ResumableCopy implements RowListener {
+        private final String tableName;
+        private final List<String> columnNames;
+        private final String copySql;
+        private final long offset;
+        private final int batchRows;
+        private final StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+        private CopyIn copyIn;
+        private long position;
+        private int batchSize;
+
+        ResumableCopy(TableSchema tableSchema, long offset, int batchRows) {
+            this.tableName = tableSchema.getTableName();
+            this.columnNames = tableSchema.getColumnNames();
+            this.copySql = "COPY " + resumeName(tableName) + " (" + String.join(", ", columnNames) + ", " + ROW_HASH_COLUMN + ")" +
+                    " FROM STDIN WITH (FORMAT csv)";
+            this.offset = offset;
+            this.batchRows = batchRows;
+        }
+
+        @Override
+        public void row(String name, Map<String, String> row) throws Exception {
+            if (position++ < offset) return;
+            if (copyIn == null) copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql);
+            appendCsvLine(buffer, columnNames, row);
+            if (buffer.length() >= COPY_BUFFER_SIZE) flush(copyIn, buffer);
+            if (++batchSize >= batchRows) commitBatch();
+        }
+
+        /**
+         * Завершает COPY пакета и фиксирует его вместе с контрольной точкой
+         */
+        void commitBatch() throws SQLException {
+            if (copyIn == null) return;
+            flush(copyIn, buffer);
+            copyIn.endCopy();
+            copyIn = null;
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE " + CHECKPOINTS_TABLE + " SET rows_committed = ?, updated_at = now() WHERE table_name = ?")) {
+                update.setLong(1, position);
+                update.setString(2, tableName);
+                update.executeUpdate();
+            }
+            connection.commit();
+            batchSize = 0;
+        }
+
+        void cancel() throws SQLException {
+            if (copyIn != null && copyIn.isActive()) copyIn.cancelCopy();
+        }
+    }
+
+    /**
+     * Создаёт временную таблицу для строк в формате jsonb и начинает COPY в неё.
+     * Используется в конвейерном режиме, когда строки передаются в бд до того, как известна схема таблицы
+     * @param tableName название таблицы
+     * @return COPY, в который передаются строки jsonCsvLine
+     */
+    CopyIn beginJsonCopy(String tableName) throws SQLException {
+        String jsonStageName = jsonStageName(tableName);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TEMP TABLE " + jsonStageName + " (row jsonb, " + ROW_HASH_COLUMN + " bigint) ON COMMIT DROP");
+        }
+        return connection.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY " + jsonStageName + " (row, " + ROW_HASH_COLUMN + ") FROM STDIN WITH (FORMAT csv)");
+    }
+
+    /**
+     * Передаёт подготовленные строки в COPY, начатый beginJsonCopy
+     */
+    void writeJson(CopyIn copyIn, byte[] data) throws SQLException {
+        copyIn.writeToCopy(data, 0, data.length);
+        metrics.addPayloadBytes(data.length);
+    }
+
+    /**
+     * Загружает строки, переданные через beginJsonCopy, в таблицу (после завершения COPY)
+     * @param tableSchema схема таблицы, выведенная по всем её строкам
+     * @param create нужно ли создать таблицу
+     * @param total количество переданных строк
+     * @return количество добавленных, изменённых, неизменившихся и удалённых строк
+     */
+    SyncSummary loadJson(TableSchema tableSchema, boolean create, long total) throws Exception {
+        String tableName = tableSchema.getTableName();
+        String stageName = stageName(tableName);
+        List<String> columnNames = tableSchema.getColumnNames();
+
+        long start = System.nanoTime();
+        createStage(tableSchema, create);
+        String columns = String.join(", ", columnNames);
+        // jsonb_populate_record приводит значения к типам колонок основной таблицы
+        String insertSql = "INSERT INTO " + stageName + " (" + columns + ", " + ROW_HASH_COLUMN + ")\n" +
+                "SELECT " + columnNames.stream().map(c -> "(r)." + c).collect(Collectors.joining(", ")) + ", " + ROW_HASH_COLUMN + "\n" +
+                "FROM (SELECT jsonb_populate_record(NULL::" + tableName + ", row) AS r, " + ROW_HASH_COLUMN +
+                " FROM " + jsonStageName(tableName) + ") j";
+        metrics.addPayloadBytes(insertSql.length());
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(insertSql);
+        }
+        return analyzeAndMerge(tableName, stageName, columnNames, total, start);
+    }
+
+    /**
+     * Строка COPY для beginJsonCopy: значения строки одним объектом json (param - вложенный объект) и отпечаток
+     * @param row значения строки из xml
+     * @return строка в формате csv
+     */
+    static String jsonCsvLine(Map<String, String> row) {
+        StringJoiner json = new StringJoiner(",", "{", "}");
+        row.forEach((column, value) -> {
+            if (value == null) return;
+            // param уже содержит текст json
+            json.add(JSONObject.quote(column) + ":" + (column.equals("param") ? value : JSONObject.quote(value)));
+        });
+        return csvValue(json.toString()) + "," + RowFingerprint.of(row) + "\n";
+    }
+
+    /**
+     * Создаёт основную таблицу (при необходимости) и временную таблицу с такими же колонками
+     */
+    private void createStage(TableSchema tableSchema, boolean create) throws SQLException {
+        String tableName = tableSchema.getTableName();
+        try (Statement stmt = connection.createStatement()) {
+            if (create) {
+                String createSql = tableSchema.toSql();
+                metrics.addPayloadBytes(createSql.length());
+                stmt.execute(createSql);
+            }
+            stmt.execute("CREATE TEMP TABLE " + stageName(tableName) + " (LIKE " + tableName + " INCLUDING DEFAULTS, " +
+                    ROW_HASH_COLUMN + " bigint) ON COMMIT DROP");
+        }
+    }
+
+    private SyncSummary analyzeAndMerge(String tableName, String stageName, List<String> columnNames, long total,
+                                        long stageStart) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // У временных таблиц нет автоматической статистики, без неё планировщик ошибается в оценках
+            stmt.execute("ANALYZE " + stageName);
+        }
+        metrics.setRows(total);
+        metrics.addStageNanos(System.nanoTime() - stageStart);
+
+        long start = System.nanoTime();
+        SyncSummary summary = merge(tableName, stageName, columnNames, total);
+        metrics.addMergeNanos(System.nanoTime() - start);
+        return summary;
+    }
+
+    /**
+     * Слияние временной таблицы с основной
+     * @param total количество строк во временной таблице
+     */
+    private SyncSummary merge(String tableName, String stageName, List<String> columnNames, long total) throws SQLException {
+        List<String> sqlList = mergeSql(tableName, stageName, columnNames);
+        sqlList.forEach(sql -> metrics.addPayloadBytes(sql.length()));
+        long deleted;
+        long inserted = 0;
+        long updated = 0;
+        List<String> deletedIds = new ArrayList<>();
+        String deleteSql = captureChanges ? sqlList.get(0) + "\nRETURNING t.id::varchar" : sqlList.get(0);
+        try (PreparedStatement delete = connection.prepareStatement(deleteSql);
+             PreparedStatement deleteHashes = connection.prepareStatement(sqlList.get(1));
+             PreparedStatement upsert = connection.prepareStatement(sqlList.get(2));
+             PreparedStatement upsertHashes = connection.prepareStatement(sqlList.get(3))) {
+            if (captureChanges) {
+                try (ResultSet resultSet = delete.executeQuery()) {
+                    while (resultSet.next()) deletedIds.add(resultSet.getString(1));
+                }
+                deleted = deletedIds.size();
+            } else {
+                deleted = delete.executeUpdate();
+            }
+            deleteHashes.setString(1, tableName);
+            deleteHashes.executeUpdate();
+
+            // Изменения считаются до upsert, пока в основной таблице прежние значения
+            if (captureChanges) captureChanges(tableName, stageName, columnNames, deletedIds, true);
+
+            upsert.setString(1, tableName);
+            try (ResultSet resultSet = upsert.executeQuery()) {
+                if (resultSet.next()) {
+                    inserted = resultSet.getLong("inserted");
+                    updated = resultSet.getLong("updated");
+                }
+            }
+
+            upsertHashes.setString(1, tableName);
+            upsertHashes.executeUpdate();
+        }
+        return new SyncSummary(inserted, updated, total - inserted - updated, deleted, Duration.ZERO);
+    }
+
+    /**
+     * Возвращает запросы слияния временной таблицы с основной
+     * @param tableName основная таблица
+     * @param stageName временная таблица с данными из xml
+     * @param columnNames колонки таблицы
+     * @return запросы удаления отсутствующих в xml записей и их отпечатков,
+     * upsert новых и изменившихся строк, обновления отпечатков
+     */
+    static List<String> mergeSql(String tableName, String stageName, List<String> columnNames) {
+        String columns = String.join(", ", columnNames);
+        List<String> sqlList = new ArrayList<>();
+        // Удаление записей, которых нет в новом XML
+        sqlList.add("DELETE FROM " + tableName + " t\n" +
+                "WHERE NOT EXISTS (SELECT 1 FROM " + stageName + " s WHERE s.id = t.id)");
+        sqlList.add("DELETE FROM " + ROW_HASHES_TABLE + " h\n" +
+                "WHERE h.table_name = ? AND NOT EXISTS (SELECT 1 FROM " + stageName + " s WHERE s.id::varchar = h.id)");
+
+        // Вставка новых записей и обновление записей, у которых поменялся отпечаток
+        sqlList.add("WITH upserted AS (\n" +
+                "  INSERT INTO " + tableName + " (" + columns + ")\n" +
+                "  SELECT " + columns + " FROM " + stageName + " s\n" +
+                "  WHERE NOT EXISTS (SELECT 1 FROM " + ROW_HASHES_TABLE + " h\n" +
+                "                    WHERE h.table_name = ? AND h.id = s.id::varchar AND h.row_hash = s." + ROW_HASH_COLUMN + ")\n" +
+                "     OR NOT EXISTS (SELECT 1 FROM " + tableName + " t WHERE t.id = s.id)\n" +
+                "  " + XmlDBService.onConflictSql(columnNames) + "\n" +
+                "  RETURNING (xmax = 0) AS is_insert\n" +
+                ")\n" +
+                "SELECT count(*) FILTER (WHERE is_insert) AS inserted, count(*) FILTER (WHERE NOT is_insert) AS updated FROM upserted");
+
+        sqlList.add(upsertHashesSql(stageName));
+        return sqlList;
+    }
+
+    /**
+     * Запись отпечатков строк временной таблицы (параметр - название таблицы)
+     */
+    private static String upsertHashesSql(String stageName) {
+        return "INSERT INTO " + ROW_HASHES_TABLE + " (table_name, id, row_hash)\n" +
+                "SELECT ?, id::varchar, " + ROW_HASH_COLUMN + " FROM " + stageName + "\n" +
+                "ON CONFLICT (table_name, id) DO UPDATE SET row_hash = EXCLUDED.row_hash\n" +
+                "WHERE " + ROW_HASHES_TABLE + ".row_hash IS DISTINCT FROM EXCLUDED.row_hash";
+    }
+
+    /**
+     * Передаёт строки во временную таблицу через COPY
+     * @return количество переданных строк
+     */
+    private long copy(String stageName, List<String> columnNames, RowSource rows) throws Exception {
+        String copySql = "COPY " + stageName + " (" + String.join(", ", columnNames) + ", " + ROW_HASH_COLUMN + ")" +
+                " FROM STDIN WITH (FORMAT csv)";
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql);
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+            rows.forEachRow((name, row) -> {
+                appendCsvLine(buffer, columnNames, row);
+                if (buffer.length() >= COPY_BUFFER_SIZE) flush(copyIn, buffer);
+            });
+            flush(copyIn, buffer);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) copyIn.cancelCopy();
+        }
+    }
+
+    /**
+     * Дописывает в буфер строку COPY: значения колонок и отпечаток строки (без промежуточных строк на каждое значение)
+     */
+    private static void appendCsvLine(StringBuilder buffer, List<String> columnNames, Map<String, String> row) {
+        for (String columnName : columnNames) {
+            appendCsvValue(buffer, row.get(columnName));
+            buffer.append(',');
+        }
+        buffer.append(RowFingerprint.of(row)).append('\n');
+    }
+
+    private static void appendCsvValue(StringBuilder buffer, String value) {
+        if (value == null) return;
+        buffer.append('"');
+        if (value.indexOf('"') < 0) {
+            buffer.append(value);
+        } else {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') buffer.append('"');
+                buffer.append(c);
+            }
+        }
+        buffer.append('"');
+    }
+
+    private void flush(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.isEmpty()) return;
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        metrics.addPayloadBytes(bytes.length);
+        buffer.setLength(0);
+    }
+
+    /**
+     * Значение в формате csv: null передаётся пустым полем, остальные значения всегда в кавычках
+     */
+    static String csvValue(String value) {
+        if (value == null) return "";
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String stageName(String tableName) {
+        return "xml_stage_" + tableName;
+    }
+
+    private static String routeName(String tableName) {
+        return "xml_route_" + tableName;
+    }
+
+    private static String resumeName(String tableName) {
+        return "xml_resume_" + tableName;
+    }
+
+    private static String shadowName(String tableName) {
+        return "xml_shadow_" + tableName;
+    }
+
+    private static String jsonStageName(String tableName) {
+        return "xml_pipe_" + tableName;
+    }
+}
@@ -0,0 +1,179 @@
+package org.example.service;
+
+import org.example.catalog.RowSource;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Таблица замыкания дерева категорий category_closure (ancestor_id, descendant_id, depth):
+ * для каждой категории хранятся все её предки, включая её саму с depth = 0.
+ * Поиск предложений категории и всех её подкатегорий - запрос по первичному ключу без рекурсии:
+ * <pre>
+ * SELECT o.* FROM offers o JOIN category_closure c ON c.descendant_id = o.categoryid WHERE c.ancestor_id = ?
+ * </pre>
+ * Дерево собирается из строк categories во время их загрузки; перестраиваются только поддеревья категорий,
+ * которые появились, исчезли или сменили родителя. Тип ключей совпадает с типом categories.id
+ */
+final class CategoryClosure {
+    static final String CATEGORIES_TABLE = "categories";
+    static final String CLOSURE_TABLE = "category_closure";
+    private static final String ID_TYPE_SQL = """
+            SELECT format_type(a.atttypid, a.atttypmod) FROM pg_catalog.pg_attribute a
+            WHERE a.attrelid = to_regclass(?) AND a.attname = ? AND NOT a.attisdropped
+            """;
+
+    // id категории -> id родителя (null для корневых категорий)
+    private final Map<String, String> parents = new HashMap<>();
+
+    /**
+     * @return источник строк categories, который при чтении запоминает родителя каждой категории
+     */
+    RowSource collecting(RowSource rows) {
+        return listener -> rows.forEachRow((tableName, row) -> {
+            if (row.get("id") != null) parents.put(row.get("id"), row.get("parentid"));
+            listener.row(tableName, row);
+        });
+    }
+
+    /**
+     * Обновляет таблицу замыкания после загрузки categories в транзакции вызывающей стороны
+     * @param connection соединение с бд
+     * @return количество удалённых и добавленных строк таблицы замыкания
+     */
+    long update(Connection connection) throws SQLException {
+        String idType = columnType(connection, CATEGORIES_TABLE, "id");
+        createTable(connection, idType);
+
+        // Родитель, которого нет среди категорий, не входит в дерево
+        Map<String, String> newParents = new HashMap<>();
+        parents.forEach((id, parentId) -> newParents.put(id, parentId != null && parents.containsKey(parentId) ? parentId : null));
+        Map<String, String> oldParents = loadParents(connection);
+
+        Set<String> changed = new HashSet<>();
+        newParents.forEach((id, parentId) -> {
+            if (!oldParents.containsKey(id) || !Objects.equals(oldParents.get(id), parentId)) changed.add(id);
+        });
+        for (String id : oldParents.keySet()) {
+            if (!newParents.containsKey(id)) changed.add(id);
+        }
+        if (changed.isEmpty()) return 0;
+
+        // Строки замыкания меняются у изменившихся категорий и всех их потомков в старом и новом дереве
+        Set<String> affected = new HashSet<>(changed);
+        affected.addAll(descendants(changed, oldParents));
+        affected.addAll(descendants(changed, newParents));
+
+        long deleted;
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM " + CLOSURE_TABLE + " WHERE descendant_id = ANY (?::" + idType + "[])")) {
+            Array ids = connection.createArrayOf("varchar", affected.toArray());
+            delete.setArray(1, ids);
+            deleted = delete.executeUpdate();
+        }
+        return deleted + insert(connection, affected, newParents);
+    }
+
+    /**
+     * Строки замыкания категорий affected: путь от каждой категории до корня
+     */
+    private long insert(Connection connection, Set<String> affected, Map<String, String> newParents) throws SQLException {
+        StringBuilder data = new StringBuilder();
+        for (String id : affected) {
+            if (!newParents.containsKey(id)) continue;
+            Set<String> path = new HashSet<>();
+            String ancestor = id;
+            // Цикл в parentId (ошибка в фиде) обрывает путь, а не зацикливает загрузку
+            for (int depth = 0; ancestor != null && path.add(ancestor); depth++) {
+                data.append(BulkLoader.csvValue(ancestor)).append(',').append(BulkLoader.csvValue(id))
+                        .append(',').append(depth).append('\n');
+                ancestor = newParents.get(ancestor);
+            }
+        }
+        if (data.isEmpty()) return 0;
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY " + CLOSURE_TABLE + " (ancestor_id, descendant_id, depth) FROM STDIN WITH (FORMAT csv)");
+        try {
+            byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) copyIn.cancelCopy();
+        }
+    }
+
+    /**
+     * Создаёт таблицу замыкания с ключами типа categories.id, при расширении типа id расширяет ключи
+     */
+    private static void createTable(Connection connection, String idType) throws SQLException {
+        String currentType = columnType(connection, CLOSURE_TABLE, "ancestor_id");
+        try (Statement stmt = connection.createStatement()) {
+            if (currentType == null) {
+                stmt.execute("CREATE TABLE " + CLOSURE_TABLE + " (\n" +
+                        "    ancestor_id " + idType + ",\n    descendant_id " + idType + ",\n    depth integer,\n" +
+                        "    PRIMARY KEY (ancestor_id, descendant_id)\n)");
+                stmt.execute("CREATE INDEX " + CLOSURE_TABLE + "_descendant_idx ON " + CLOSURE_TABLE + " (descendant_id)");
+            } else if (!currentType.equals(idType)) {
+                stmt.execute("ALTER TABLE " + CLOSURE_TABLE + "\n" +
+                        "    ALTER COLUMN ancestor_id TYPE " + idType + " USING ancestor_id::" + idType + ",\n" +
+                        "    ALTER COLUMN descendant_id TYPE " + idType + " USING descendant_id::" + idType);
+            }
+        }
+    }
+
+    /**
+     * Родители категорий по строкам замыкания с depth = 1; категории без таких строк - корневые
+     */
+    private static Map<String, String> loadParents(Connection connection) throws SQLException {
+        Map<String, String> oldParents = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT ancestor_id::varchar, descendant_id::varchar, depth FROM " +
+                     CLOSURE_TABLE + " WHERE depth <= 1")) {
+            while (resultSet.next()) {
+                String descendantId = resultSet.getString(2);
+                if (resultSet.getInt(3) == 1) oldParents.put(descendantId, resultSet.getString(1));
+                else oldParents.putIfAbsent(descendantId, null);
+            }
+        }
+        return oldParents;
+    }
+
+    /**
+     * @return все потомки категорий ids в дереве, заданном родителями
+     */
+    private static Set<String> descendants(Set<String> ids, Map<String, String> parentsById) {
+        Map<String, List<String>> children = new HashMap<>();
+        parentsById.forEach((id, parentId) -> {
+            if (parentId != null) children.computeIfAbsent(parentId, k -> new ArrayList<>()).add(id);
+        });
+        Set<String> result = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(ids);
+        while (!queue.isEmpty()) {
+            for (String child : children.getOrDefault(queue.poll(), List.of())) {
+                if (result.add(child)) queue.add(child);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return тип колонки в бд (format_type), null если таблицы нет
+     */
+    static String columnType(Connection connection, String tableName, String columnName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(ID_TYPE_SQL)) {
+            statement.setString(1, tableName);
+            statement.setString(2, columnName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+}
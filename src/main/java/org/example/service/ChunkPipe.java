@@ -0,0 +1,135 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Канал байт между двумя потоками с ограниченной очередью блоков.
+ * Когда очередь заполнена, запись ждёт чтения, поэтому загрузка фида не опережает разбор больше чем на depth блоков
+ */
+final class ChunkPipe {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Признак конца данных
+    private static final byte[] EOF = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks;
+    private final OutputStream output = new PipeOutput();
+    private final InputStream input = new PipeInput();
+    private byte[] chunk;
+    private int position;
+
+    /**
+     * @param depth количество блоков в очереди
+     */
+    ChunkPipe(int depth) {
+        this.chunks = new ArrayBlockingQueue<>(depth);
+    }
+
+    /**
+     * @return поток записи, close() передаёт признак конца данных
+     */
+    OutputStream output() {
+        return output;
+    }
+
+    /**
+     * @return поток чтения
+     */
+    InputStream input() {
+        return input;
+    }
+
+    /**
+     * Ждёт первый блок данных
+     * @return false, если данные не были записаны (канал закрыт пустым)
+     */
+    boolean awaitData() throws IOException {
+        return nextChunk();
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (chunk == EOF) return false;
+        if (chunk != null && position < chunk.length) return true;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline was cancelled");
+        }
+        position = 0;
+        return chunk != EOF;
+    }
+
+    private final class PipeInput extends InputStream {
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) return -1;
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!nextChunk()) return -1;
+            int count = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    private final class PipeOutput extends OutputStream {
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) flush();
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (size == buffer.length) flush();
+                int count = Math.min(length, buffer.length - size);
+                System.arraycopy(data, offset, buffer, size, count);
+                size += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size == 0) return;
+            byte[] data = size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+            put(data);
+            buffer = new byte[CHUNK_SIZE];
+            size = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            flush();
+            put(EOF);
+            closed = true;
+        }
+
+        private void put(byte[] data) throws IOException {
+            try {
+                chunks.put(data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Pipeline was cancelled");
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.service;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.time.Duration;
+
+/**
+ * Создание пула соединений с бд
+ */
+public final class DataSourceFactory {
+    public static final String DEFAULT_URL = "jdbc:postgresql://localhost:5433/test_db";
+
+    private DataSourceFactory() {}
+
+    /**
+     * Пул соединений к бд из docker-compose
+     */
+    public static HikariDataSource createDefault() {
+        return create(DEFAULT_URL, "admin", "admin", 4);
+    }
+
+    /**
+     * @param url jdbc url
+     * @param user пользователь
+     * @param password пароль
+     * @param maxPoolSize максимальное количество соединений в пуле
+     * @return пул соединений
+     */
+    public static HikariDataSource create(String url, String user, String password, int maxPoolSize) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(maxPoolSize);
+        config.setPoolName("xml-db");
+        // Соединения проверяются между синхронизациями, чтобы фоновый процесс не получил соединение,
+        // закрытое сервером или сетью за время простоя
+        config.setKeepaliveTime(Duration.ofMinutes(5).toMillis());
+        return new HikariDataSource(config);
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.service;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Результат синхронизации одного фида в MultiFeedSync
+ * @param feedName название фида
+ * @param schemaName схема бд фида
+ * @param tables результат обновления по каждой таблице (для успешно обновлённых таблиц), пустой если фид не изменился
+ * @param duration время синхронизации фида
+ * @param error ошибка синхронизации, null если фид синхронизирован
+ */
+public record FeedSyncResult(String feedName, String schemaName, Map<String, SyncSummary> tables,
+                             Duration duration, Exception error) {
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
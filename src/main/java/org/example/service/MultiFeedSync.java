@@ -0,0 +1,130 @@
+package org.example.service;
+
+import org.example.feed.FeedSource;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Синхронизация нескольких фидов в одном процессе, каждый фид в своей схеме бд.
+ * Фиды используют общий пул соединений и общий пул потоков из maxConcurrentFeeds потоков:
+ * одновременно синхронизируется не больше maxConcurrentFeeds фидов, поэтому соединений нужно не больше
+ * maxConcurrentFeeds * SyncOptions.parallelism.
+ * За один проход syncAll каждый фид синхронизируется ровно один раз; большой фид занимает один поток,
+ * остальные фиды продолжают синхронизироваться в свободных потоках.
+ * Фиды запускаются в порядке длительности их предыдущей синхронизации (новые и быстрые первыми),
+ * чтобы маленькие фиды не ждали в очереди за большими
+ */
+public class MultiFeedSync implements AutoCloseable {
+    private final DataSource dataSource;
+    private final SyncOptions options;
+    private final ExecutorService executor;
+    private final Map<String, Feed> feeds = new LinkedHashMap<>();
+
+    /**
+     * Фид и его сервис; сервис создаётся при первой синхронизации (в потоке синхронизации, т.к. конструктор получает фид)
+     */
+    private static final class Feed {
+        private final String name;
+        private final FeedSource feedSource;
+        private final String schemaName;
+        private XmlDBService service;
+        private long lastNanos;
+
+        Feed(String name, FeedSource feedSource, String schemaName) {
+            this.name = name;
+            this.feedSource = feedSource;
+            this.schemaName = schemaName;
+        }
+    }
+
+    /**
+     * @param dataSource общий пул соединений с бд
+     * @param options настройки синхронизации каждого фида
+     * @param maxConcurrentFeeds количество фидов, синхронизируемых одновременно
+     */
+    public MultiFeedSync(DataSource dataSource, SyncOptions options, int maxConcurrentFeeds) {
+        if (maxConcurrentFeeds < 1) throw new IllegalArgumentException("maxConcurrentFeeds must be positive");
+        this.dataSource = dataSource;
+        this.options = options;
+        this.executor = Executors.newFixedThreadPool(maxConcurrentFeeds);
+    }
+
+    /**
+     * Добавляет фид
+     * @param name название фида (ключ в результатах)
+     * @param feedSource источник xml
+     * @param schemaName схема бд для таблиц фида
+     */
+    public synchronized void addFeed(String name, FeedSource feedSource, String schemaName) {
+        boolean schemaUsed = feeds.values().stream().anyMatch(feed -> feed.schemaName.equals(schemaName));
+        if (feeds.containsKey(name) || schemaUsed) {
+            throw new IllegalArgumentException("Feed " + name + " or schema " + schemaName + " is already added");
+        }
+        feeds.put(name, new Feed(name, feedSource, schemaName));
+    }
+
+    /**
+     * Синхронизирует все фиды (XmlDBService.sync: таблицы обновляются, только если фид изменился).
+     * Ошибка одного фида не прерывает синхронизацию остальных
+     * @return результат по каждому фиду в порядке добавления
+     */
+    public synchronized Map<String, FeedSyncResult> syncAll() throws InterruptedException {
+        List<Feed> order = new ArrayList<>(feeds.values());
+        order.sort(Comparator.comparingLong(feed -> feed.lastNanos));
+
+        Map<String, Future<FeedSyncResult>> futures = new HashMap<>();
+        for (Feed feed : order) futures.put(feed.name, executor.submit(() -> sync(feed)));
+
+        Map<String, FeedSyncResult> results = new LinkedHashMap<>();
+        for (Feed feed : feeds.values()) {
+            try {
+                results.put(feed.name, futures.get(feed.name).get());
+            } catch (ExecutionException e) {
+                // sync перехватывает ошибки фида, сюда попадают только ошибки вида Error
+                throw new IllegalStateException("Sync of feed " + feed.name + " failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private FeedSyncResult sync(Feed feed) {
+        long start = System.nanoTime();
+        Map<String, SyncSummary> tables = Map.of();
+        Exception error = null;
+        try {
+            if (feed.service == null) feed.service = new XmlDBService(feed.feedSource, dataSource, options, feed.schemaName);
+            tables = feed.service.sync();
+        } catch (SyncException e) {
+            tables = e.getResults();
+            error = e;
+        } catch (Exception e) {
+            error = e;
+        }
+        feed.lastNanos = System.nanoTime() - start;
+        return new FeedSyncResult(feed.name, feed.schemaName, tables, Duration.ofNanos(feed.lastNanos), error);
+    }
+
+    /**
+     * Останавливает пул потоков, ожидая окончания текущих синхронизаций, и закрывает сервисы фидов.
+     * Общий пул соединений не закрывается. Если ожидание прервано, синхронизации прерываются,
+     * а флаг прерывания потока восстанавливается
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) executor.shutdownNow();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Feed feed : feeds.values()) {
+                if (feed.service != null) feed.service.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package org.example.service;
+
+import org.example.catalog.RowListener;
+import org.example.catalog.YmlStreamParser;
+import org.example.changes.ChangeSet;
+import org.example.changes.TableChanges;
+import org.example.feed.FeedSource;
+import org.example.metrics.SyncMetrics;
+import org.example.metrics.SyncReport;
+import org.example.metrics.TableMetrics;
+import org.example.schema.ColumnStats;
+import org.example.schema.TableSchema;
+import org.postgresql.copy.CopyIn;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Конвейерная синхронизация всех таблиц фида.
+ * Этапы выполняются одновременно, каждый в своём потоке, и связаны ограниченными очередями:
+ * получение фида -> разбор xml (StAX) -> подготовка строк (json и отпечаток, статистика столбцов) -> запись в бд.
+ * Строки таблицы передаются в бд через COPY во временную таблицу jsonb, пока фид ещё загружается;
+ * после последней строки таблицы по статистике выводится её схема и строки сливаются с основной таблицей.
+ * Все таблицы обновляются в одной транзакции: ошибка любого этапа останавливает конвейер и откатывает изменения
+ */
+class PipelinedSync {
+    // Время ожидания очереди, после которого проверяется, не остановлен ли конвейер
+    private static final long POLL_MILLIS = 100;
+
+    private final XmlDBService service;
+    private final FeedSource feedSource;
+    private final SyncOptions options;
+    private final SyncMetrics metrics;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private volatile long parseNanos;
+
+    PipelinedSync(XmlDBService service, FeedSource feedSource, SyncOptions options, SyncMetrics metrics) {
+        this.service = service;
+        this.feedSource = feedSource;
+        this.options = options;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Сообщения этапа подготовки строк этапу записи
+     */
+    private sealed interface Message permits Rows, TableEnd, End {}
+
+    /**
+     * Пакет строк таблицы в формате COPY
+     */
+    private record Rows(String tableName, byte[] data) implements Message {}
+
+    /**
+     * Строки таблицы закончились
+     */
+    private record TableEnd(String tableName, Map<String, ColumnStats> columnStats) implements Message {}
+
+    private record End() implements Message {}
+
+    /**
+     * Этап конвейера
+     */
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Пакет разобранных строк таблицы, null tableName - конец фида
+     */
+    private record RowBatch(String tableName, List<Map<String, String>> rows) {}
+
+    /**
+     * Выполняет синхронизацию
+     * @param fetch получать ли фид (иначе читается последняя полученная версия)
+     * @param withChange добавлять ли новые столбцы и расширять ли типы существующих
+     * @param syncedVersion версия фида, загруженная в бд: если получена она же, таблицы не обновляются
+     * @return результат обновления по каждой таблице, пустой если фид уже загружен в бд
+     */
+    Map<String, SyncSummary> run(boolean fetch, boolean withChange, String syncedVersion) throws Exception {
+        ChunkPipe pipe = new ChunkPipe(options.getQueueDepth());
+        BlockingQueue<RowBatch> rowQueue = new ArrayBlockingQueue<>(options.getQueueDepth());
+        BlockingQueue<Message> messageQueue = new ArrayBlockingQueue<>(options.getQueueDepth());
+        SyncReport report = metrics.startSync(List.of());
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> stages = List.of(
+                    executor.submit(stage(executor, () -> fetch(pipe, fetch, syncedVersion, report))),
+                    executor.submit(stage(executor, () -> parse(pipe, rowQueue))),
+                    executor.submit(stage(executor, () -> prepare(rowQueue, messageQueue))));
+            return write(messageQueue, stages, withChange, report);
+        } catch (Exception e) {
+            // Остановка этапа из-за ошибки другого этапа: наружу передаётся исходная ошибка
+            Exception cause = failure.get();
+            throw e instanceof CancellationException && cause != null ? cause : e;
+        } finally {
+            executor.shutdownNow();
+            metrics.finishSync(report);
+        }
+    }
+
+    /**
+     * Этап получения фида: содержимое передаётся в канал по мере загрузки
+     */
+    private void fetch(ChunkPipe pipe, boolean fetch, String syncedVersion, SyncReport report) throws Exception {
+        try (OutputStream output = pipe.output()) {
+            if (fetch) {
+                long start = System.nanoTime();
+                feedSource.fetch(output, syncedVersion);
+                long nanos = System.nanoTime() - start;
+                metrics.recordFetch(nanos, feedSource.fetchedBytes());
+                report.setFetch(nanos, feedSource.fetchedBytes());
+            } else {
+                try (InputStream xmlStream = feedSource.open()) {
+                    xmlStream.transferTo(output);
+                }
+            }
+        }
+    }
+
+    /**
+     * Этап разбора: строки таблиц собираются в пакеты
+     */
+    private void parse(ChunkPipe pipe, BlockingQueue<RowBatch> rowQueue) throws Exception {
+        long start = System.nanoTime();
+        // Фид уже загружен в бд и не передавался
+        if (!pipe.awaitData()) {
+            put(rowQueue, new RowBatch(null, List.of()));
+            return;
+        }
+        int batchSize = options.getBatchSize();
+        RowListener listener = new RowListener() {
+            private String tableName;
+            private List<Map<String, String>> rows = new ArrayList<>(batchSize);
+
+            @Override
+            public void table(String tableName) throws Exception {
+                flush();
+                this.tableName = tableName;
+            }
+
+            @Override
+            public void row(String tableName, Map<String, String> row) throws Exception {
+                rows.add(row);
+                if (rows.size() >= batchSize) flush();
+            }
+
+            private void flush() throws Exception {
+                if (rows.isEmpty()) return;
+                put(rowQueue, new RowBatch(tableName, rows));
+                rows = new ArrayList<>(batchSize);
+            }
+        };
+        InputStream input = pipe.input();
+        YmlStreamParser.parse(input, listener);
+        listener.table(null);
+        // Остаток после корневого элемента дочитывается, чтобы загрузка фида не ждала заполненную очередь
+        input.transferTo(OutputStream.nullOutputStream());
+        put(rowQueue, new RowBatch(null, List.of()));
+        parseNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Этап подготовки строк: json и отпечаток для COPY, статистика столбцов для вывода схемы
+     */
+    private void prepare(BlockingQueue<RowBatch> rowQueue, BlockingQueue<Message> messageQueue) throws Exception {
+        String tableName = null;
+        Map<String, ColumnStats.Collector> collectors = new HashMap<>();
+        long rowCount = 0;
+        while (true) {
+            RowBatch batch = take(rowQueue);
+            if (tableName != null && !Objects.equals(tableName, batch.tableName())) {
+                put(messageQueue, new TableEnd(tableName, toStats(collectors, rowCount)));
+                collectors = new HashMap<>();
+                rowCount = 0;
+            }
+            tableName = batch.tableName();
+            if (tableName == null) break;
+
+            StringBuilder data = new StringBuilder();
+            for (Map<String, String> row : batch.rows()) {
+                data.append(BulkLoader.jsonCsvLine(row));
+                for (Map.Entry<String, String> entry : row.entrySet()) {
+                    collectors.computeIfAbsent(entry.getKey(), k -> new ColumnStats.Collector(options.getExactDistinctLimit()))
+                            .add(entry.getValue());
+                }
+            }
+            rowCount += batch.rows().size();
+            put(messageQueue, new Rows(tableName, data.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        put(messageQueue, new End());
+    }
+
+    /**
+     * Этап записи (в вызывающем потоке): одна транзакция на все таблицы
+     */
+    private Map<String, SyncSummary> write(BlockingQueue<Message> messageQueue, List<Future<?>> stages,
+                                           boolean withChange, SyncReport report) throws Exception {
+        Map<String, SyncSummary> results = new LinkedHashMap<>();
+        List<TableSchema> loadedSchemas = new ArrayList<>();
+        List<TableChanges> changes = service.changeList();
+        ChangeSet changeSet;
+        long schemaNanos = 0;
+        try (Connection connection = service.connection()) {
+            connection.setAutoCommit(false);
+            CopyIn copyIn = null;
+            try {
+                BulkLoader.createServiceTables(connection);
+                BulkLoader loader = null;
+                TableMetrics tableMetrics = null;
+                long tableStart = 0;
+                while (true) {
+                    Message message = take(messageQueue);
+                    if (message instanceof Rows rows) {
+                        if (copyIn == null) {
+                            tableStart = System.nanoTime();
+                            tableMetrics = report.table(rows.tableName());
+                            loader = new BulkLoader(connection, tableMetrics, changes != null);
+                            copyIn = loader.beginJsonCopy(rows.tableName());
+                        }
+                        loader.writeJson(copyIn, rows.data());
+                    } else if (message instanceof TableEnd end) {
+                        long total = copyIn.endCopy();
+                        copyIn = null;
+                        tableMetrics.addStageNanos(System.nanoTime() - tableStart);
+
+                        long inferStart = System.nanoTime();
+                        TableSchema tableSchema = TableSchema.infer(end.tableName(), end.columnStats());
+                        schemaNanos += System.nanoTime() - inferStart;
+                        boolean create = service.prepareTable(connection, tableSchema, withChange, tableMetrics);
+                        SyncSummary summary = loader.loadJson(tableSchema, create, total);
+                        loader.createIndexes(end.tableName(), tableSchema.getIndexes(options.isParamIndex()));
+                        if (changes != null) changes.add(loader.getChanges());
+                        tableMetrics.setTotalNanos(System.nanoTime() - tableStart);
+                        results.put(end.tableName(), summary.withDuration(Duration.ofNanos(System.nanoTime() - tableStart)));
+                        loadedSchemas.add(tableSchema);
+                    } else {
+                        break;
+                    }
+                }
+                // Все этапы должны завершиться без ошибок (например, сохранение фида в кэш после загрузки)
+                for (Future<?> stage : stages) stage.get();
+                // Все таблицы фида загружены в этой транзакции
+                List<String> tableNames = loadedSchemas.stream().map(TableSchema::getTableName).toList();
+                if (feedSource.version() != null) {
+                    for (String tableName : tableNames) {
+                        BulkLoader.markSynced(connection, tableName, feedSource.version(), tableNames);
+                    }
+                }
+                changeSet = service.beforeCommit(connection, changes, feedSource.version());
+
+                long commitStart = System.nanoTime();
+                connection.commit();
+                long commitNanos = System.nanoTime() - commitStart;
+                report.getTables().forEach(t -> t.addCommitNanos(commitNanos));
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+                report.getTables().forEach(TableMetrics::failed);
+                if (copyIn != null && copyIn.isActive()) copyIn.cancelCopy();
+                connection.rollback();
+                throw e instanceof ExecutionException && e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+        metrics.recordParse(parseNanos, schemaNanos);
+        report.setParse(parseNanos, schemaNanos);
+        for (TableSchema tableSchema : loadedSchemas) service.afterCommit(tableSchema, feedSource.version());
+        service.afterCommit(changeSet);
+        return results;
+    }
+
+    private static Map<String, ColumnStats> toStats(Map<String, ColumnStats.Collector> collectors, long rowCount) {
+        Map<String, ColumnStats> stats = new TreeMap<>();
+        collectors.forEach((column, collector) -> stats.put(column, collector.toStats(rowCount)));
+        return stats;
+    }
+
+    /**
+     * Оборачивает этап: ошибка запоминается и прерывает остальные этапы
+     */
+    private Callable<Void> stage(ExecutorService executor, Stage body) {
+        return () -> {
+            try {
+                body.run();
+                return null;
+            } catch (Exception e) {
+                if (failure.compareAndSet(null, e)) executor.shutdownNow();
+                throw e;
+            }
+        };
+    }
+
+    private <T> void put(BlockingQueue<T> queue, T item) throws Exception {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) checkFailure();
+    }
+
+    private <T> T take(BlockingQueue<T> queue) throws Exception {
+        while (true) {
+            T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) return item;
+            checkFailure();
+        }
+    }
+
+    private void checkFailure() throws Exception {
+        Exception e = failure.get();
+        if (e != null) throw new CancellationException("Pipeline was stopped: " + e);
+    }
+}
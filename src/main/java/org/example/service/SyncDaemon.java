@@ -0,0 +1,218 @@
+package org.example.service;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Фоновая синхронизация: один XmlDBService (пул соединений, HTTP клиент, кэш фида и схем)
+ * живёт всё время работы процесса и периодически вызывает sync().
+ * Следующий запуск планируется после завершения предыдущего, поэтому запуски не пересекаются;
+ * к интервалу добавляется случайное отклонение, чтобы несколько процессов не обращались к фиду одновременно.
+ * Состояние последней синхронизации записывается в файл статуса (json), по которому проверяется работоспособность
+ */
+public class SyncDaemon implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger("org.example.sync");
+
+    private final XmlDBService service;
+    private final Duration interval;
+    private final double jitter;
+    private final Path statusFile;
+    private final ScheduledExecutorService scheduler;
+    // Запуск по расписанию и ручной запуск runOnce не выполняются одновременно
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    private volatile String state = "idle";
+    private volatile Instant lastStart;
+    private volatile Instant lastFinish;
+    private volatile Instant lastSuccess;
+    private volatile Instant lastChange;
+    private volatile Instant nextRun;
+    private volatile String lastError;
+    private volatile long cycles;
+    private volatile long skippedCycles;
+    private volatile long consecutiveFailures;
+    private volatile Map<String, SyncSummary> lastResult = Map.of();
+
+    /**
+     * @param service сервис синхронизации
+     * @param interval интервал между окончанием синхронизации и следующим запуском
+     * @param jitter доля интервала для случайного отклонения (0.1 - интервал ±10%)
+     * @param statusFile файл статуса, null если статус не записывается
+     */
+    public SyncDaemon(XmlDBService service, Duration interval, double jitter, Path statusFile) {
+        if (interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("interval must be positive");
+        if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("jitter must be in [0, 1)");
+        this.service = service;
+        this.interval = interval;
+        this.jitter = jitter;
+        this.statusFile = statusFile;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "xml-db-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Запускает первую синхронизацию сразу, следующие - через интервал после окончания предыдущей
+     */
+    public void start() {
+        schedule(Duration.ZERO);
+    }
+
+    /**
+     * Выполняет синхронизацию, если она не выполняется в этот момент
+     * @return true, если синхронизация выполнена (успешно или с ошибкой), false если уже выполнялась
+     */
+    public boolean runOnce() {
+        if (!runLock.tryLock()) return false;
+        try {
+            runCycle();
+            return true;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    /**
+     * @return текущее состояние в формате файла статуса
+     */
+    public String getStatus() {
+        return statusJson().toString();
+    }
+
+    /**
+     * @param maxAge допустимое время с последней успешной синхронизации
+     * @return true, если последняя успешная синхронизация была не раньше maxAge назад
+     */
+    public boolean isHealthy(Duration maxAge) {
+        Instant success = lastSuccess;
+        return success != null && success.plus(maxAge).isAfter(Instant.now());
+    }
+
+    /**
+     * Останавливает расписание и ждёт окончания текущей синхронизации.
+     * Если ожидание прервано, синхронизация прерывается, а флаг прерывания потока восстанавливается
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) scheduler.shutdownNow();
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        state = "stopped";
+        nextRun = null;
+        writeStatus();
+    }
+
+    private void schedule(Duration delay) {
+        if (scheduler.isShutdown()) return;
+        nextRun = Instant.now().plus(delay);
+        writeStatus();
+        try {
+            scheduler.schedule(() -> {
+                runOnce();
+                schedule(nextDelay());
+            }, delay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // close() вызван во время синхронизации - следующий запуск не нужен
+        }
+    }
+
+    /**
+     * Интервал со случайным отклонением в пределах ±jitter
+     */
+    private Duration nextDelay() {
+        double factor = 1 + jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        return Duration.ofMillis(Math.round(interval.toMillis() * factor));
+    }
+
+    private void runCycle() {
+        lastStart = Instant.now();
+        state = "running";
+        cycles++;
+        writeStatus();
+        try {
+            // sync() не разбирает xml и не обновляет таблицы, если эта версия фида уже загружена в бд (304 или тот же хеш)
+            Map<String, SyncSummary> result = service.sync();
+            if (result.isEmpty()) {
+                skippedCycles++;
+            } else {
+                lastResult = result;
+                lastChange = Instant.now();
+            }
+            lastSuccess = Instant.now();
+            lastError = null;
+            consecutiveFailures = 0;
+        } catch (Exception e) {
+            // Ошибка не останавливает расписание: следующая попытка будет через интервал
+            lastError = String.valueOf(e);
+            consecutiveFailures++;
+            LOG.log(Level.WARNING, "Scheduled sync failed", e);
+        } finally {
+            lastFinish = Instant.now();
+            state = "idle";
+            writeStatus();
+        }
+    }
+
+    private JSONObject statusJson() {
+        JSONObject tables = new JSONObject();
+        lastResult.forEach((tableName, summary) -> tables.put(tableName, new JSONObject()
+                .put("inserted", summary.inserted())
+                .put("updated", summary.updated())
+                .put("unchanged", summary.unchanged())
+                .put("deleted", summary.deleted())
+                .put("durationMs", summary.duration() == null ? 0 : summary.duration().toMillis())));
+        return new JSONObject()
+                .put("state", state)
+                .put("lastStart", toJson(lastStart))
+                .put("lastFinish", toJson(lastFinish))
+                .put("lastSuccess", toJson(lastSuccess))
+                .put("lastChange", toJson(lastChange))
+                .put("nextRun", toJson(nextRun))
+                .put("cycles", cycles)
+                .put("skippedCycles", skippedCycles)
+                .put("consecutiveFailures", consecutiveFailures)
+                .put("lastError", lastError == null ? JSONObject.NULL : lastError)
+                .put("lastTables", tables);
+    }
+
+    private static Object toJson(Instant instant) {
+        return instant == null ? JSONObject.NULL : instant.toString();
+    }
+
+    /**
+     * Записывает статус во временный файл и атомарно заменяет им файл статуса,
+     * чтобы читатель не увидел частично записанный json
+     */
+    private void writeStatus() {
+        if (statusFile == null) return;
+        try {
+            Path temp = statusFile.resolveSibling(statusFile.getFileName() + ".tmp");
+            Files.writeString(temp, statusJson().toString(), StandardCharsets.UTF_8);
+            Files.move(temp, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to write sync status to " + statusFile, e);
+        }
+    }
+}
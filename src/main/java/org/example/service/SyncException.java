@@ -0,0 +1,35 @@
+package org.example.service;
+
+import java.util.Map;
+
+/**
+ * Ошибка обновления одной или нескольких таблиц.
+ * Содержит результаты таблиц, которые успели обновиться
+ */
+public class SyncException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, SyncSummary> results;
+    private final Map<String, Exception> failures;
+
+    public SyncException(Map<String, SyncSummary> results, Map<String, Exception> failures) {
+        super("Failed to update tables " + failures.keySet(), failures.values().iterator().next());
+        this.results = results;
+        this.failures = failures;
+        failures.values().stream().skip(1).forEach(this::addSuppressed);
+    }
+
+    /**
+     * @return результаты успешно обновлённых таблиц
+     */
+    public Map<String, SyncSummary> getResults() {
+        return results;
+    }
+
+    /**
+     * @return ошибки по таблицам
+     */
+    public Map<String, Exception> getFailures() {
+        return failures;
+    }
+}
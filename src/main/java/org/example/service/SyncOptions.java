@@ -0,0 +1,296 @@
+package org.example.service;
+
+import org.example.catalog.ParamPromotion;
+import org.example.changes.ChangeSink;
+import org.example.schema.TablePartitioning;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Настройки синхронизации XmlDBService
+ */
+public class SyncOptions {
+    private boolean streaming = false;
+    private int parallelism = 1;
+    private boolean singleTransaction = false;
+    private boolean failFast = false;
+    private int exactDistinctLimit = 100_000;
+    private boolean pipelined = false;
+    private int batchSize = 1000;
+    private int queueDepth = 4;
+    private int parseParallelism = 1;
+    private boolean shadowReload = false;
+    private boolean resumable = false;
+    private int checkpointRows = 100_000;
+    private boolean categoryClosure = false;
+    private boolean paramIndex = false;
+    private ParamPromotion paramPromotion = null;
+    private final Map<String, TablePartitioning> partitioning = new HashMap<>();
+    private final List<ChangeSink> changeSinks = new ArrayList<>();
+
+    /**
+     * Потоковый режим: xml не загружается в память целиком,
+     * а читается StAX парсером при каждом проходе по строкам таблиц
+     */
+    public SyncOptions streaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * Количество таблиц, обновляемых одновременно (каждая на своём соединении и в своей транзакции)
+     */
+    public SyncOptions parallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Обновление всех таблиц в одной транзакции ("всё или ничего"), таблицы обновляются последовательно
+     */
+    public SyncOptions singleTransaction(boolean singleTransaction) {
+        this.singleTransaction = singleTransaction;
+        return this;
+    }
+
+    /**
+     * При ошибке в одной таблице не начинать обновление остальных.
+     * По умолчанию ошибка одной таблицы не мешает обновлению других
+     */
+    public SyncOptions failFast(boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    /**
+     * Количество различных значений столбца, до которого статистика столбца считается точно.
+     * При большем количестве используется HyperLogLog, чтобы расход памяти не зависел от размера фида
+     */
+    public SyncOptions exactDistinctLimit(int exactDistinctLimit) {
+        this.exactDistinctLimit = exactDistinctLimit;
+        return this;
+    }
+
+    /**
+     * Конвейерный режим: получение фида, разбор, подготовка строк и запись в бд выполняются одновременно
+     * в отдельных потоках, связанных ограниченными очередями. Строки таблицы начинают передаваться в бд
+     * во время загрузки фида; все таблицы обновляются в одной транзакции.
+     * Несовместим с shadowReload, resumable, categoryClosure, promoteParams и partitioning:
+     * конструктор XmlDBService выдаёт IllegalArgumentException
+     */
+    public SyncOptions pipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * Количество строк в пакете, передаваемом между этапами конвейера
+     */
+    public SyncOptions batchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Количество пакетов в очереди между этапами конвейера. Когда очередь заполнена,
+     * предыдущий этап ждёт (в том числе загрузка фида), поэтому расход памяти ограничен
+     */
+    public SyncOptions queueDepth(int queueDepth) {
+        if (queueDepth < 1) throw new IllegalArgumentException("queueDepth must be positive");
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    /**
+     * Количество потоков разбора большого фида, сохранённого в локальном файле.
+     * При значении больше 1 файл отображается в память и разбирается частями по границам offer
+     */
+    public SyncOptions parseParallelism(int parseParallelism) {
+        if (parseParallelism < 1) throw new IllegalArgumentException("parseParallelism must be positive");
+        this.parseParallelism = parseParallelism;
+        return this;
+    }
+
+    /**
+     * Полная перезагрузка таблиц через теневую таблицу вместо слияния с основной:
+     * строки загружаются в новую таблицу, которая в конце транзакции заменяет основную.
+     * Читатели основной таблицы блокируются только на время замены. Несовместимо с конвейерным режимом
+     */
+    public SyncOptions shadowReload(boolean shadowReload) {
+        this.shadowReload = shadowReload;
+        return this;
+    }
+
+    /**
+     * Возобновляемая загрузка больших таблиц: строки фиксируются в промежуточной таблице пакетами
+     * по checkpointRows строк вместе с контрольной точкой (версия фида, таблица, количество строк).
+     * После сбоя синхронизация той же версии фида продолжается с контрольной точки,
+     * основная таблица обновляется одной транзакцией после загрузки всех строк.
+     * Используется при обновлении таблиц в отдельных транзакциях (не в singleTransaction), несовместимо с конвейерным режимом
+     */
+    public SyncOptions resumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    /**
+     * Количество строк в пакете возобновляемой загрузки
+     */
+    public SyncOptions checkpointRows(int checkpointRows) {
+        if (checkpointRows < 1) throw new IllegalArgumentException("checkpointRows must be positive");
+        this.checkpointRows = checkpointRows;
+        return this;
+    }
+
+    /**
+     * Вести таблицу замыкания дерева категорий category_closure при загрузке categories,
+     * чтобы поиск по категории и всем её подкатегориям выполнялся по индексу без рекурсивных запросов.
+     * Несовместимо с конвейерным режимом
+     */
+    public SyncOptions categoryClosure(boolean categoryClosure) {
+        this.categoryClosure = categoryClosure;
+        return this;
+    }
+
+    /**
+     * Создавать и поддерживать GIN индекс (jsonb_path_ops) по jsonb колонке param,
+     * чтобы отбор по значению параметра (param @> '{"Цвет": "Красный"}') выполнялся по индексу
+     */
+    public SyncOptions paramIndex(boolean paramIndex) {
+        this.paramIndex = paramIndex;
+        return this;
+    }
+
+    /**
+     * Выносить самые частые параметры offer в отдельные колонки param_&lt;название&gt; с типом, выведенным
+     * из значений, и B-tree индексом. Колонки добавляются при обновлении таблиц с изменениями (updateWithChange),
+     * как и новые колонки из xml; созданные колонки сохраняются в следующих версиях фида.
+     * Несовместимо с конвейерным режимом
+     * @param maxColumns максимальное количество колонок параметров в таблице, добавляемых за одну версию фида
+     * @param minFrequency минимальная доля строк таблицы с параметром
+     */
+    public SyncOptions promoteParams(int maxColumns, double minFrequency) {
+        this.paramPromotion = new ParamPromotion(maxColumns, minFrequency);
+        return this;
+    }
+
+    /**
+     * Создавать таблицу секционированной (PARTITION BY HASH или LIST). Строки распределяются по секциям
+     * при загрузке, каждая секция сливается отдельно: при обновлении таблиц в отдельных транзакциях
+     * секции загружаются параллельно (до parallelism секций одновременно), каждая на своём соединении и в своей транзакции,
+     * поэтому секции фиксируются независимо. Исключение - ключ секционирования, отличный от id: строка может перейти
+     * в другую секцию, поэтому все секции такой таблицы загружаются последовательно в одной транзакции.
+     * Строка без значения ключа секционирования - ошибка загрузки таблицы. Новые колонки и расширение типов применяются к основной таблице
+     * и через неё ко всем секциям. Секционирование задаётся при создании таблицы: существующая обычная таблица не перестраивается.
+     * Для секционированных таблиц не используются shadowReload, resumable и categoryClosure. Несовместимо с конвейерным режимом
+     * @param tableName название таблицы
+     * @param partitioning секционирование, например TablePartitioning.hash("id", 8)
+     */
+    public SyncOptions partitioning(String tableName, TablePartitioning partitioning) {
+        this.partitioning.put(tableName, partitioning);
+        return this;
+    }
+
+    /**
+     * Добавляет получателя изменений: после каждой синхронизации ему передаются id добавленных,
+     * изменённых (с названиями изменившихся колонок) и удалённых строк каждой таблицы.
+     * Изменения собираются, только если есть хотя бы один получатель
+     */
+    public SyncOptions changeSink(ChangeSink changeSink) {
+        this.changeSinks.add(changeSink);
+        return this;
+    }
+
+    /**
+     * Проверяет, что вместе с конвейерным режимом не включены настройки, которые он не поддерживает
+     * @throws IllegalArgumentException если такие настройки включены
+     */
+    void checkPipelined() {
+        if (!pipelined) return;
+        List<String> unsupported = new ArrayList<>();
+        if (shadowReload) unsupported.add("shadowReload");
+        if (resumable) unsupported.add("resumable");
+        if (categoryClosure) unsupported.add("categoryClosure");
+        if (paramPromotion != null) unsupported.add("promoteParams");
+        if (!partitioning.isEmpty()) unsupported.add("partitioning");
+        if (!unsupported.isEmpty()) {
+            throw new IllegalArgumentException("Pipelined sync does not support " + String.join(", ", unsupported));
+        }
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isSingleTransaction() {
+        return singleTransaction;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public int getExactDistinctLimit() {
+        return exactDistinctLimit;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getParseParallelism() {
+        return parseParallelism;
+    }
+
+    public boolean isShadowReload() {
+        return shadowReload;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    public int getCheckpointRows() {
+        return checkpointRows;
+    }
+
+    public boolean isCategoryClosure() {
+        return categoryClosure;
+    }
+
+    public boolean isParamIndex() {
+        return paramIndex;
+    }
+
+    public ParamPromotion getParamPromotion() {
+        return paramPromotion;
+    }
+
+    /**
+     * @return секционирование таблицы, null для обычной таблицы
+     */
+    public TablePartitioning getPartitioning(String tableName) {
+        return partitioning.get(tableName);
+    }
+
+    public List<ChangeSink> getChangeSinks() {
+        return changeSinks;
+    }
+}
@@ -0,0 +1,25 @@
+package org.example.service;
+
+import java.time.Duration;
+
+/**
+ * Результат обновления таблицы
+ * @param inserted количество добавленных строк
+ * @param updated количество изменившихся строк
+ * @param unchanged количество строк, которые не изменились и не записывались в бд
+ * @param deleted количество удалённых строк
+ * @param duration время обновления таблицы (вместе с фиксацией транзакции)
+ */
+public record SyncSummary(long inserted, long updated, long unchanged, long deleted, Duration duration) {
+    public SyncSummary withDuration(Duration duration) {
+        return new SyncSummary(inserted, updated, unchanged, deleted, duration);
+    }
+
+    /**
+     * @return сумма результатов частей таблицы (секций), время не суммируется
+     */
+    public SyncSummary plus(SyncSummary other) {
+        return new SyncSummary(inserted + other.inserted, updated + other.updated, unchanged + other.unchanged,
+                deleted + other.deleted, duration);
+    }
+}
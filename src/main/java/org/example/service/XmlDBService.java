@@ -1,140 +1,273 @@
 package org.example.service;
-import groovy.xml.XmlSlurper;
-import groovy.xml.slurpersupport.GPathResult;
-import groovy.xml.slurpersupport.NodeChild;
+import com.zaxxer.hikari.HikariDataSource;
+import org.example.catalog.CatalogSnapshot;
+import org.example.catalog.ParamPromotion;
+import org.example.catalog.RowSource;
+import org.example.changes.ChangeSet;
+import org.example.changes.ChangeSink;
+import org.example.changes.TableChanges;
+import org.example.feed.FeedCache;
+import org.example.feed.FeedSource;
+import org.example.feed.HttpFeedSource;
+import org.example.metrics.SyncMetrics;
+import org.example.metrics.SyncReport;
+import org.example.metrics.TableMetrics;
+import org.example.schema.ColumnStats;
+import org.example.schema.ColumnType;
+import org.example.schema.SchemaRegistry;
+import org.example.schema.TablePartitioning;
 import org.example.schema.TableSchema;
-import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URI;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
-
-import org.json.JSONObject;
-
-public class XmlDBService {
-    private final GPathResult yml_catalog;
-    private final HashMap<String, TableSchema> tableSchemas = new HashMap<>();
-    private final Connection sqlConnection;
-
-    public XmlDBService() throws ParserConfigurationException, SAXException, IOException, SQLException {
-        XmlSlurper xmlSlurper = new XmlSlurper(false, true);
-        xmlSlurper.setFeature("http://apache.org/xml/features/disallow-doctype-decl", false);
-        xmlSlurper.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "all");
-        xmlSlurper.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "all");
-        xmlSlurper.setEntityResolver((publicId, systemId) ->
-                new org.xml.sax.InputSource(new java.io.StringReader(""))
-        );
-        String httpsUrl = "https://expro.ru/bitrix/catalog_export/export_Sai.xml";
-        URL url = URI.create(httpsUrl).toURL();
-        URLConnection connection = url.openConnection();
-        connection.setRequestProperty("Accept", "application/xml");
-        InputStream xmlStream = connection.getInputStream();
-        yml_catalog = xmlSlurper.parse(xmlStream);
-        sqlConnection = DriverManager.getConnection("jdbc:postgresql://localhost:5433/test_db", "admin", "admin");
-        sqlConnection.setAutoCommit(false);
-        loadSchemasFromDb();
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class XmlDBService implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger("org.example.sync");
+    private static final String FEED_URL = "https://expro.ru/bitrix/catalog_export/export_Sai.xml";
+    // Уникальный индекс по одному столбцу (в том числе первичный ключ)
+    private static final String UNIQUE_INDEX_SQL = """
+            SELECT 1 FROM pg_catalog.pg_index i
+            JOIN pg_catalog.pg_class c ON c.oid = i.indrelid
+            JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace
+            JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum = i.indkey[0]
+            WHERE n.nspname = ? AND c.relname = ? AND a.attname = ?
+              AND i.indisunique AND i.indnkeyatts = 1 AND i.indpred IS NULL
+            """;
+    // Колонки, в которые ранее вынесены параметры offer
+    private static final String PARAM_COLUMNS_SQL = """
+            SELECT c.relname AS table_name, a.attname AS column_name, t.typname AS type_name
+            FROM pg_catalog.pg_attribute a
+            JOIN pg_catalog.pg_class c ON c.oid = a.attrelid
+            JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace
+            JOIN pg_catalog.pg_type t ON t.oid = a.atttypid
+            WHERE n.nspname = ? AND c.relkind IN ('r', 'p') AND a.attnum > 0 AND NOT a.attisdropped
+              AND starts_with(a.attname, ?)
+            """;
+
+    private final FeedSource feedSource;
+    private final DataSource dataSource;
+    // Пул, созданный самим сервисом (конструкторы без DataSource), закрывается в close()
+    private final HikariDataSource ownedDataSource;
+    private final SyncOptions options;
+    // Схема бд, в которой находятся таблицы фида
+    private final String schemaName;
+    private volatile boolean schemaReady;
+    // Снимок последней разобранной версии фида; xml разбирается при первом обращении
+    private CatalogSnapshot snapshot;
+    // Схемы таблиц из бд, сбрасываются после выполнения DDL
+    private final SchemaRegistry schemaRegistry;
+    // Версия фида, из которой последний раз загружена таблица; по ней определяется актуальность статистики
+    private final Map<String, String> syncedVersions = new ConcurrentHashMap<>();
+    // Длительность этапов синхронизации, доступна по JMX
+    private final SyncMetrics metrics = new SyncMetrics();
+    private final ObjectName metricsName;
+
+    /**
+     * Сервис с собственным пулом соединений к бд из docker-compose, пул закрывается в close()
+     */
+    public XmlDBService() throws Exception {
+        this(defaultFeedSource(), null, new SyncOptions(), "public", DataSourceFactory.createDefault());
     }
 
     /**
-     * Возвращает названия таблиц из XML (currency, categories, offers)
-     * @return названия всех таблиц
+     * @param dataSource пул соединений с бд
+     * @param options настройки синхронизации
      */
-    public ArrayList<String> getTableNames() {
-        ArrayList<String> result = new ArrayList<>();
-        GPathResult shop = (GPathResult)yml_catalog.getProperty("shop");
-        // Итерируемся по всем элементам shop
-        for (Object node: shop.children()) {
-            GPathResult child = (GPathResult) node;
-            // Если внутри элемента присутствуют другие элементы, считаем, что это таблица
-            if(!child.children().isEmpty()) result.add(child.name());
-        }
-        return result;
+    public XmlDBService(DataSource dataSource, SyncOptions options) throws Exception {
+        this(defaultFeedSource(), dataSource, options);
     }
 
     /**
-     * Создает sql для создания таблиц динамически из XML
-     * также может обновлять строки в таблицах и добавлять новые строки
-     * @param tableName название таблицы
-     * @return sql для создания таблиц
+     * Сервис с собственным пулом соединений к бд из docker-compose, пул закрывается в close()
+     * @param feedSource источник xml
+     * @param streaming потоковый режим: xml не загружается в память целиком,
+     *                  а читается StAX парсером при каждом проходе по строкам таблиц
      */
-    public String getTableDDL(String tableName) {
-        StringBuilder sqlQueryBuilder = new StringBuilder();
+    public XmlDBService(FeedSource feedSource, boolean streaming) throws Exception {
+        this(feedSource, null, new SyncOptions().streaming(streaming), "public", DataSourceFactory.createDefault());
+    }
+
+    /**
+     * @param feedSource источник xml
+     * @param dataSource пул соединений с бд
+     * @param options настройки синхронизации
+     */
+    public XmlDBService(FeedSource feedSource, DataSource dataSource, SyncOptions options) throws Exception {
+        this(feedSource, dataSource, options, "public");
+    }
 
-        TableSchema tableSchema = tableSchemas.get(tableName);
-        if (tableSchema == null) {
-            tableSchema = getTableSchema(tableName);
-            sqlQueryBuilder.append(tableSchema.toSql()).append("\n");
+    /**
+     * @param feedSource источник xml
+     * @param dataSource пул соединений с бд (может использоваться несколькими сервисами), закрывает вызывающая сторона
+     * @param options настройки синхронизации
+     * @param schemaName схема бд для таблиц фида, создаётся при первом обращении к бд
+     */
+    public XmlDBService(FeedSource feedSource, DataSource dataSource, SyncOptions options, String schemaName) throws Exception {
+        this(feedSource, dataSource, options, schemaName, null);
+    }
+
+    /**
+     * @param ownedDataSource пул, созданный для этого сервиса (вместо dataSource), null если пул передан вызывающей стороной
+     */
+    private XmlDBService(FeedSource feedSource, DataSource dataSource, SyncOptions options, String schemaName,
+                         HikariDataSource ownedDataSource) throws Exception {
+        this.feedSource = feedSource;
+        this.dataSource = ownedDataSource != null ? ownedDataSource : dataSource;
+        this.ownedDataSource = ownedDataSource;
+        this.options = options;
+        this.schemaName = schemaName;
+        this.schemaRegistry = new SchemaRegistry(this.dataSource, schemaName);
+        metricsName = metrics.registerMBean(schemaName.equals("public") ? "xml-db" : "xml-db-" + schemaName);
+        try {
+            options.checkPipelined();
+            fetch();
+        } catch (Exception e) {
+            close();
+            throw e;
         }
+    }
 
-        GPathResult shop = (GPathResult)yml_catalog.getProperty("shop");
-        GPathResult tableContent = (GPathResult)shop.getProperty(tableName);
-        List<String> columnNames = tableSchema.getColumnNames();
+    private static FeedSource defaultFeedSource() throws IOException {
+        return new HttpFeedSource(FEED_URL, new FeedCache(Path.of(System.getProperty("java.io.tmpdir"), "xml-feed-cache")));
+    }
+
+    /**
+     * Снимает регистрацию метрик в JMX и закрывает пул соединений, если сервис создал его сам.
+     * Пул, переданный в конструктор, не закрывается
+     */
+    @Override
+    public void close() {
+        metrics.unregisterMBean(metricsName);
+        if (ownedDataSource != null) ownedDataSource.close();
+    }
+
+    /**
+     * Получает фид и обновляет таблицы, только если эта версия фида ещё не загружена в бд.
+     * Загруженная версия хранится в схеме бд (таблица xml_synced_versions) и записывается в транзакции с данными
+     * каждой таблицы, поэтому после сброса или восстановления бд, а также для другой бд с тем же фидом
+     * таблицы загружаются заново. Если сервер ответил 304 или содержимое не поменялось и версия уже в бд,
+     * разбор xml и обновление бд не выполняются.
+     * В конвейерном режиме (SyncOptions.pipelined) запись в бд начинается во время загрузки фида
+     * @return результат обновления по каждой таблице, пустой если фид не изменился
+     */
+    public Map<String, SyncSummary> sync() throws Exception {
+        String syncedVersion = syncedVersion();
+        if (options.isPipelined()) {
+            // Бд могла быть сброшена или восстановлена, схемы таблиц в кэше могут не совпадать с бд
+            schemaRegistry.refresh();
+            return pipeline().run(true, false, syncedVersion);
+        }
+        fetch();
+        if (Objects.equals(feedSource.version(), syncedVersion)) return new LinkedHashMap<>();
+        schemaRegistry.refresh();
+        return update();
+    }
 
-        List<String> valuesRows = new ArrayList<>();
+    /**
+     * Получает актуальную версию фида. Если она изменилась, xml будет разобран заново при следующем обращении
+     * @return true, если эта версия фида ещё не загружена в бд
+     */
+    public boolean refresh() throws Exception {
+        fetch();
+        return !Objects.equals(feedSource.version(), syncedVersion());
+    }
 
-        for (Object row: tableContent.children()) {
-            NodeChild rowNodeChild = (NodeChild)row;
-            @SuppressWarnings("unchecked")
-            Map<String, String> originalAttrs = (Map<String, String>) rowNodeChild.attributes();
+    /**
+     * @return метрики синхронизаций (также зарегистрированы в JMX как org.example:type=SyncMetrics)
+     */
+    public SyncMetrics getMetrics() {
+        return metrics;
+    }
 
-            Map<String, String> valuesMap = originalAttrs.entrySet().stream()
-                    .collect(Collectors.toMap(
-                            entry -> entry.getKey().toLowerCase(),
-                            Map.Entry::getValue,
-                            (oldValue, newValue) -> newValue
-                    ));
-            Map<String, String> paramMap = new HashMap<>();
+    /**
+     * Возвращает названия таблиц из XML (currency, categories, offers)
+     * @return названия всех таблиц
+     */
+    public ArrayList<String> getTableNames() throws Exception {
+        return new ArrayList<>(snapshot().getTableNames());
+    }
 
+    /**
+     * Создает sql для создания таблиц динамически из XML
+     * также может обновлять строки в таблицах и добавлять новые строки.
+     * Используется для просмотра: update() загружает данные через COPY, не формируя этот запрос
+     * @param tableName название таблицы
+     * @return sql для создания таблиц
+     */
+    public String getTableDDL(String tableName) throws Exception {
+        CatalogSnapshot snapshot = snapshot();
+        TableSchema tableSchema = schemaRegistry.get(tableName);
+        long start = System.nanoTime();
+        String sql = tableSchema == null
+                ? tableDDL(snapshot, tableSchema(snapshot, tableName), true)
+                : tableDDL(snapshot, tableSchema, false);
+        metrics.recordSqlBuild(System.nanoTime() - start, sql.length());
+        return sql;
+    }
 
-            for (Object child: rowNodeChild.children()) {
-                NodeChild column = (NodeChild)child;
-                String columnName = column.name().toLowerCase();
+    /**
+     * Формирует sql getTableDDL по снимку фида без обращения к бд, как для таблицы, которой ещё нет в бд
+     * (секционирование из настроек не учитывается)
+     * @param snapshot снимок фида (CatalogSnapshot.load)
+     * @param tableName название таблицы
+     * @return sql для создания и заполнения таблицы
+     */
+    public static String getTableDDL(CatalogSnapshot snapshot, String tableName) throws Exception {
+        return tableDDL(snapshot, snapshot.getTableSchema(tableName), true);
+    }
 
-                // Для полей "param" создаётся отдельный HashMap, который затем приводится к формату jsonb
-                if (Objects.equals(columnName, "param")) {
-                    String paramName = (String) column.attributes().get("name");
-                    paramMap.put(paramName, column.text());
-                } else {
-                    valuesMap.put(columnName, column.text());
-                }
-            }
+    /**
+     * Формирует sql getTableDDL без обращения к бд
+     * @param snapshot снимок фида со строками таблицы
+     * @param tableSchema схема таблицы
+     * @param create добавить ли создание таблицы
+     * @return sql для создания и обновления таблицы
+     */
+    private static String tableDDL(CatalogSnapshot snapshot, TableSchema tableSchema, boolean create) throws Exception {
+        StringBuilder sqlQueryBuilder = new StringBuilder();
+        String tableName = tableSchema.getTableName();
+        if (create) sqlQueryBuilder.append(tableSchema.toSql()).append("\n");
 
-            if (!paramMap.isEmpty()) valuesMap.put("param", new JSONObject(paramMap).toString());
+        List<String> columnNames = tableSchema.getColumnNames();
+        List<String> columnTypes = columnNames.stream().map(tableSchema::getColumnType).toList();
 
-            // Для данных в строчках таблицы без имени (как в categories) добавляется название колонки "data"
-            if (rowNodeChild.children().isEmpty() & !Objects.equals(rowNodeChild.text(), "")) {
-                valuesMap.put("data", rowNodeChild.text());
-            }
+        // Строки VALUES дописываются в один буфер, без промежуточной строки на каждую запись и значение
+        StringBuilder valuesRows = new StringBuilder();
 
+        snapshot.forEachRow(tableName, (name, valuesMap) -> {
             // Генерация запроса для вставки одной строки
-            StringJoiner rowJoiner = new StringJoiner(", ", "(", ")");
-            for (String columnName : columnNames) {
-                String value = valuesMap.get(columnName);
-                if (value == null) rowJoiner.add("NULL");
+            if (!valuesRows.isEmpty()) valuesRows.append(",\n         ");
+            valuesRows.append('(');
+            for (int i = 0; i < columnNames.size(); i++) {
+                if (i > 0) valuesRows.append(", ");
+                String value = valuesMap.get(columnNames.get(i));
+                if (value == null) valuesRows.append("NULL");
                 else {
-                    if (columnName.equals("param")) {
-                        rowJoiner.add("'" + value + "'::jsonb");
-                    } else {
-                        rowJoiner.add("'" + value + "'");
+                    valuesRows.append('\'').append(value).append('\'');
+                    // Значения приводятся к типу колонки, иначе строки VALUES будут иметь тип text
+                    String columnType = columnTypes.get(i);
+                    if (columnType != null && !columnType.equals(ColumnType.VARCHAR.getSqlName())) {
+                        valuesRows.append("::").append(columnType);
                     }
                 }
-
             }
-            valuesRows.add(rowJoiner.toString());
-        }
+            valuesRows.append(')');
+        });
 
 
         if (!valuesRows.isEmpty()) {
             // Часть запроса с созданием виртуальной таблицы для поиска новых/поменявшихся записей
             sqlQueryBuilder.append("WITH xml_data (").append(String.join(", ", columnNames)).append(") AS (\n");
-            sqlQueryBuilder.append("  VALUES ").append(String.join(",\n         ", valuesRows)).append("\n),\n");
+            sqlQueryBuilder.append("  VALUES ").append(valuesRows).append("\n),\n");
 
             // Удаление записей, которых нет в новом XML
             sqlQueryBuilder.append("deleted AS (\n");
@@ -143,17 +276,7 @@ public class XmlDBService {
             // Вставка в таблицу записей или их обновление
             sqlQueryBuilder.append("INSERT INTO ").append(tableName).append(" (").append(String.join(", ", columnNames)).append(")\n");
             sqlQueryBuilder.append("SELECT * FROM xml_data\n");
-            sqlQueryBuilder.append("ON CONFLICT (id) DO UPDATE SET ");
-
-            // Формирование блока обновления для ON CONFLICT
-            StringJoiner updateSet = new StringJoiner(", ");
-            for (String col : columnNames) {
-                if (!col.equalsIgnoreCase("id")) {
-                    updateSet.add(col + " = EXCLUDED." + col);
-                }
-            }
-
-            sqlQueryBuilder.append(updateSet).append(";");
+            sqlQueryBuilder.append(onConflictSql(columnNames)).append(";");
         } else {
             // Удаление всех записей таблицы, если xml пустой
             sqlQueryBuilder.append("DELETE FROM ").append(tableName).append(";");
@@ -163,69 +286,590 @@ public class XmlDBService {
 
     /**
      * Обновляет данные в таблицах бд
-     * если поменялась структура выдает exception
+     * если поменялась структура выдает exception.
+     * Таблицы обновляются параллельно (см. SyncOptions), каждая в своей транзакции,
+     * либо последовательно в одной транзакции при SyncOptions.singleTransaction,
+     * либо конвейером в одной транзакции при SyncOptions.pipelined
+     * @return результат обновления по каждой таблице
+     * @throws SyncException если не удалось обновить часть таблиц
      */
-    public void update() throws Exception {
-        ArrayList<String> tableNames = getTableNames();
-        for (String tableName: tableNames) update(tableName);
+    public Map<String, SyncSummary> update() throws Exception {
+        if (options.isPipelined()) return pipeline().run(false, false, null);
+        return updateTables(snapshot().getTableNames(), false);
     }
 
     /**
      * Обновляет данные в таблице бд
-     * если поменялась структура выдает exception
+     * если поменялась структура выдает exception.
+     * В бд записываются только новые, изменившиеся и удалённые строки
      * @param tableName название таблицы
+     * @return количество добавленных, изменённых, неизменившихся и удалённых строк
      */
-    public void update(String tableName) throws Exception {
-        loadSchemasFromDb();
-        TableSchema oldTableSchema = tableSchemas.get(tableName);
-        TableSchema newTableSchema = getTableSchema(tableName);
-        if (oldTableSchema != null & !newTableSchema.equals(oldTableSchema)) {
-            throw new Exception("Schema change in table " + tableName + "!");
-        }
-        String tableDDL = getTableDDL(tableName);
-
-        try (Statement stmt = sqlConnection.createStatement()) {
-            stmt.execute(tableDDL);
-            sqlConnection.commit();
-            TableSchema tableSchema = getTableSchema(tableName);
-            tableSchemas.put(tableName, tableSchema);
-        } catch (SQLException e) {
-            sqlConnection.rollback();
-            throw e;
-        }
+    public SyncSummary update(String tableName) throws Exception {
+        return updateSingleTable(tableName, false);
     }
 
     /**
      * Обновляет данные в таблицах бд
      * если появились новые столбцы, добавляет их
+     * если значения не помещаются в тип столбца, расширяет тип (integer -> bigint -> numeric -> varchar)
      * если есть недостающие столбцы, выдает exception
+     * @return результат обновления по каждой таблице
+     * @throws SyncException если не удалось обновить часть таблиц
      */
-    public void updateWithChange() throws Exception {
-        ArrayList<String> tableNames = getTableNames();
-        for (String tableName: tableNames) updateWithChange(tableName);
+    public Map<String, SyncSummary> updateWithChange() throws Exception {
+        if (options.isPipelined()) return pipeline().run(false, true, null);
+        return updateTables(snapshot().getTableNames(), true);
     }
 
     /**
      * Обновляет данные в таблице бд
      * если появились новые столбцы, добавляет их
+     * если значения не помещаются в тип столбца, расширяет тип (integer -> bigint -> numeric -> varchar)
      * если есть недостающие столбцы, выдает exception
+     * @return количество добавленных, изменённых, неизменившихся и удалённых строк
+     */
+    public SyncSummary updateWithChange(String tableName) throws Exception {
+        return updateSingleTable(tableName, true);
+    }
+
+    /**
+     * Обновляет одну таблицу в отдельной транзакции с записью метрик
+     */
+    private SyncSummary updateSingleTable(String tableName, boolean withChange) throws Exception {
+        CatalogSnapshot snapshot = snapshot();
+        SyncReport report = metrics.startSync(List.of(tableName));
+        try {
+            return updateTable(snapshot, tableName, withChange, report.table(tableName));
+        } finally {
+            metrics.finishSync(report);
+        }
+    }
+
+    /**
+     * Обновляет таблицы согласно настройкам параллельности и транзакций
+     * @param tableNames названия таблиц
+     * @param withChange добавлять ли новые столбцы и расширять ли типы существующих
+     * @return результат обновления по каждой таблице
+     */
+    private Map<String, SyncSummary> updateTables(List<String> tableNames, boolean withChange) throws Exception {
+        // Все таблицы обновляются из одной версии фида
+        CatalogSnapshot snapshot = snapshot();
+        SyncReport report = metrics.startSync(tableNames);
+        try {
+            // Схемы всех таблиц читаются из бд одним запросом
+            schemaRegistry.getAll(tableNames);
+            if (options.isSingleTransaction()) return updateTablesInTransaction(snapshot, tableNames, withChange, report);
+            return updateTablesInParallel(snapshot, tableNames, withChange, report);
+        } finally {
+            metrics.finishSync(report);
+        }
+    }
+
+    /**
+     * Параллельно обновляет таблицы, каждую в своей транзакции
+     */
+    private Map<String, SyncSummary> updateTablesInParallel(CatalogSnapshot snapshot, List<String> tableNames,
+                                                            boolean withChange, SyncReport report) throws Exception {
+        try (Connection connection = connection()) {
+            connection.setAutoCommit(true);
+            BulkLoader.createServiceTables(connection);
+        }
+
+        Map<String, SyncSummary> results = new LinkedHashMap<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(options.getParallelism(), tableNames.size())));
+        try {
+            CompletionService<SyncSummary> completionService = new ExecutorCompletionService<>(executor);
+            Map<Future<SyncSummary>, String> futures = new LinkedHashMap<>();
+            for (String tableName : tableNames) {
+                futures.put(completionService.submit(() -> updateTable(snapshot, tableName, withChange, report.table(tableName))),
+                        tableName);
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Future<SyncSummary> future = completionService.take();
+                String tableName = futures.get(future);
+                try {
+                    results.put(tableName, future.get());
+                } catch (ExecutionException e) {
+                    failures.put(tableName, e.getCause() instanceof Exception cause ? cause : e);
+                    // Ещё не начатые таблицы не обновляются, уже начатые завершаются
+                    if (options.isFailFast()) futures.keySet().forEach(f -> f.cancel(false));
+                } catch (CancellationException e) {
+                    report.table(tableName).failed();
+                    failures.put(tableName, new Exception("Update of table " + tableName + " was cancelled"));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        if (!failures.isEmpty()) throw new SyncException(orderedBy(tableNames, results), orderedBy(tableNames, failures));
+        return orderedBy(tableNames, results);
+    }
+
+    /**
+     * Последовательно обновляет таблицы в одной транзакции
+     */
+    private Map<String, SyncSummary> updateTablesInTransaction(CatalogSnapshot snapshot, List<String> tableNames,
+                                                               boolean withChange, SyncReport report) throws Exception {
+        Map<String, SyncSummary> results = new LinkedHashMap<>();
+        List<TableChanges> changes = changeList();
+        ChangeSet changeSet;
+        try (Connection connection = connection()) {
+            connection.setAutoCommit(false);
+            try {
+                BulkLoader.createServiceTables(connection);
+                for (String tableName : tableNames) {
+                    long start = System.nanoTime();
+                    SyncSummary summary = updateTable(connection, snapshot, tableName, withChange, report.table(tableName), changes);
+                    markSynced(connection, snapshot, tableName);
+                    report.table(tableName).setTotalNanos(System.nanoTime() - start);
+                    results.put(tableName, summary.withDuration(Duration.ofNanos(System.nanoTime() - start)));
+                }
+                changeSet = beforeCommit(connection, changes, snapshot.getVersion());
+                long commitStart = System.nanoTime();
+                connection.commit();
+                // Фиксация общая для всех таблиц
+                long commitNanos = System.nanoTime() - commitStart;
+                report.getTables().forEach(tableMetrics -> tableMetrics.addCommitNanos(commitNanos));
+            } catch (Exception e) {
+                report.getTables().forEach(TableMetrics::failed);
+                connection.rollback();
+                throw e;
+            }
+        }
+        for (String tableName : tableNames) afterCommit(snapshot, tableName);
+        afterCommit(changeSet);
+        return results;
+    }
+
+    /**
+     * Обновляет таблицу в отдельной транзакции
+     */
+    private SyncSummary updateTable(CatalogSnapshot snapshot, String tableName, boolean withChange,
+                                    TableMetrics tableMetrics) throws Exception {
+        TablePartitioning partitioning = options.getPartitioning(tableName);
+        // Если строка может перейти в другую секцию, секции загружаются в одной транзакции (ветка секций в updateTable)
+        if (partitioning != null && !partitioning.rowsCanMove()) {
+            return updatePartitionedTable(snapshot, tableName, withChange, tableMetrics);
+        }
+        long start = System.nanoTime();
+        try (Connection connection = connection()) {
+            connection.setAutoCommit(false);
+            try {
+                BulkLoader.createServiceTables(connection);
+                List<TableChanges> changes = changeList();
+                SyncSummary summary = options.isResumable() && partitioning == null
+                        ? updateTableResumable(connection, snapshot, tableName, withChange, tableMetrics, changes)
+                        : updateTable(connection, snapshot, tableName, withChange, tableMetrics, changes);
+                markSynced(connection, snapshot, tableName);
+                ChangeSet changeSet = beforeCommit(connection, changes, snapshot.getVersion());
+                long commitStart = System.nanoTime();
+                connection.commit();
+                tableMetrics.addCommitNanos(System.nanoTime() - commitStart);
+                afterCommit(snapshot, tableName);
+                afterCommit(changeSet);
+                return summary.withDuration(Duration.ofNanos(System.nanoTime() - start));
+            } catch (Exception e) {
+                tableMetrics.failed();
+                connection.rollback();
+                throw e;
+            } finally {
+                tableMetrics.setTotalNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Обновляет таблицу в текущей транзакции соединения, фиксацией управляет вызывающая сторона
+     * @param connection соединение с бд
+     * @param snapshot снимок фида
+     * @param tableName название таблицы
+     * @param withChange добавлять ли новые столбцы и расширять ли типы существующих
+     * @param tableMetrics метрики обновления таблицы
+     * @param changes список изменений транзакции, null если изменения не собираются
+     */
+    private SyncSummary updateTable(Connection connection, CatalogSnapshot snapshot, String tableName,
+                                    boolean withChange, TableMetrics tableMetrics, List<TableChanges> changes) throws Exception {
+        TableSchema newTableSchema = tableSchema(snapshot, tableName);
+        TablePartitioning partitioning = newTableSchema.getPartitioning();
+        if (partitioning != null) {
+            // Секции загружаются последовательно в транзакции вызывающей стороны
+            RowSource rows = rowSource(snapshot, tableName, null);
+            preparePartitions(connection, newTableSchema, withChange, tableMetrics, rows);
+            SyncSummary summary = new SyncSummary(0, 0, 0, 0, Duration.ZERO);
+            List<TableChanges> partitionChanges = changes != null ? new ArrayList<>() : null;
+            for (String partitionName : partitioning.getPartitionNames(tableName)) {
+                TableMetrics partitionMetrics = tableMetrics.part();
+                summary = summary.plus(loadPartition(connection, newTableSchema, partitionName, partitionMetrics, partitionChanges));
+                tableMetrics.add(partitionMetrics);
+            }
+            new BulkLoader(connection, tableMetrics).dropRoute(tableName);
+            if (changes != null) changes.add(combine(tableName, partitionChanges));
+            return summary;
+        }
+        CategoryClosure closure = categoryClosure(tableName);
+        RowSource rows = rowSource(snapshot, tableName, closure);
+        BulkLoader loader = new BulkLoader(connection, tableMetrics, changes != null);
+        SyncSummary summary;
+        if (options.isShadowReload()) {
+            TableSchema targetSchema = targetSchema(newTableSchema, withChange);
+            summary = loader.reload(targetSchema, rows, targetSchema.getIndexes(options.isParamIndex()));
+        } else {
+            boolean create = prepareTable(connection, newTableSchema, withChange, tableMetrics);
+            // Строки передаются в бд через COPY, sql запроса getTableDDL не формируется
+            summary = loader.load(newTableSchema, create, rows);
+            loader.createIndexes(tableName, newTableSchema.getIndexes(options.isParamIndex()));
+        }
+        updateClosure(connection, closure, tableMetrics);
+        if (changes != null) changes.add(loader.getChanges());
+        return summary;
+    }
+
+    /**
+     * Обновляет секционированную таблицу: в отдельной транзакции меняется схема основной таблицы и создаются секции,
+     * затем секции загружаются параллельно, каждая на своём соединении и в своей транзакции.
+     * Ошибка одной секции не отменяет уже зафиксированные секции, поэтому так загружаются только таблицы,
+     * строки которых не переходят между секциями (TablePartitioning.rowsCanMove)
+     */
+    private SyncSummary updatePartitionedTable(CatalogSnapshot snapshot, String tableName, boolean withChange,
+                                               TableMetrics tableMetrics) throws Exception {
+        long start = System.nanoTime();
+        TableSchema newTableSchema = tableSchema(snapshot, tableName);
+        RowSource rows = rowSource(snapshot, tableName, null);
+        List<String> partitionNames = newTableSchema.getPartitioning().getPartitionNames(tableName);
+        ExecutorService executor = null;
+        try {
+            try (Connection connection = connection()) {
+                connection.setAutoCommit(false);
+                try {
+                    BulkLoader.createServiceTables(connection);
+                    preparePartitions(connection, newTableSchema, withChange, tableMetrics, rows);
+                    connection.commit();
+                } catch (Exception e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+
+            executor = Executors.newFixedThreadPool(Math.max(1, Math.min(options.getParallelism(), partitionNames.size())));
+            List<Future<SyncSummary>> futures = new ArrayList<>();
+            for (String partitionName : partitionNames) {
+                futures.add(executor.submit(() -> updatePartition(snapshot, newTableSchema, partitionName, tableMetrics)));
+            }
+            SyncSummary summary = new SyncSummary(0, 0, 0, 0, Duration.ZERO);
+            Exception failure = null;
+            for (Future<SyncSummary> future : futures) {
+                try {
+                    summary = summary.plus(future.get());
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception exception ? exception : e;
+                    if (failure == null) failure = cause;
+                    else failure.addSuppressed(cause);
+                }
+            }
+            if (failure != null) throw failure;
+            // Секции зафиксированы по отдельности, версия отмечается после фиксации всех секций
+            try (Connection connection = connection()) {
+                connection.setAutoCommit(true);
+                markSynced(connection, snapshot, tableName);
+            }
+            afterCommit(snapshot, tableName);
+            return summary.withDuration(Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception e) {
+            tableMetrics.failed();
+            throw e;
+        } finally {
+            if (executor != null) executor.shutdown();
+            dropRoute(tableName, tableMetrics);
+            tableMetrics.setTotalNanos(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Удаляет промежуточную таблицу распределения строк по секциям после параллельной загрузки.
+     * Ошибка не прерывает обновление: таблица пересоздаётся при следующей загрузке
+     */
+    private void dropRoute(String tableName, TableMetrics tableMetrics) {
+        try (Connection connection = connection()) {
+            connection.setAutoCommit(true);
+            new BulkLoader(connection, tableMetrics).dropRoute(tableName);
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Failed to drop partition route of " + tableName, e);
+        }
+    }
+
+    /**
+     * Загружает секцию в отдельной транзакции
      */
-    public void updateWithChange(String tableName) throws Exception {
-        loadSchemasFromDb();
-        String tableChangeDDL = getDDLChange(tableName);
-        if (tableChangeDDL != null) {
-            TableSchema newTableSchema = getTableSchema(tableName);
-            try (Statement stmt = sqlConnection.createStatement()) {
-                stmt.executeUpdate(tableChangeDDL);
-                sqlConnection.commit();
-            } catch (SQLException e) {
-                sqlConnection.rollback();
+    private SyncSummary updatePartition(CatalogSnapshot snapshot, TableSchema tableSchema, String partitionName,
+                                        TableMetrics tableMetrics) throws Exception {
+        TableMetrics partitionMetrics = tableMetrics.part();
+        try (Connection connection = connection()) {
+            connection.setAutoCommit(false);
+            try {
+                List<TableChanges> changes = changeList();
+                SyncSummary summary = loadPartition(connection, tableSchema, partitionName, partitionMetrics, changes);
+                ChangeSet changeSet = beforeCommit(connection, changes, snapshot.getVersion());
+                long commitStart = System.nanoTime();
+                connection.commit();
+                partitionMetrics.addCommitNanos(System.nanoTime() - commitStart);
+                afterCommit(changeSet);
+                return summary;
+            } catch (Exception e) {
+                connection.rollback();
                 throw e;
+            } finally {
+                tableMetrics.add(partitionMetrics);
+            }
+        }
+    }
+
+    /**
+     * Меняет схему секционированной таблицы (изменения основной таблицы применяются ко всем секциям),
+     * создаёт недостающие секции и индексы, распределяет строки по секциям промежуточной таблицы (BulkLoader.route)
+     */
+    private void preparePartitions(Connection connection, TableSchema newTableSchema, boolean withChange,
+                                   TableMetrics tableMetrics, RowSource rows) throws Exception {
+        boolean create = prepareTable(connection, newTableSchema, withChange, tableMetrics);
+        BulkLoader loader = new BulkLoader(connection, tableMetrics);
+        loader.createPartitions(newTableSchema, create);
+        // Индекс секционированной таблицы создаётся во всех секциях
+        loader.createIndexes(newTableSchema.getTableName(), newTableSchema.getIndexes(options.isParamIndex()));
+        loader.route(newTableSchema, rows);
+    }
+
+    /**
+     * Сливает строки секции из промежуточной таблицы с секцией как с отдельной таблицей (отпечатки строк хранятся по названию секции)
+     * @param changes список изменений транзакции, изменения секции записываются под названием таблицы
+     */
+    private static SyncSummary loadPartition(Connection connection, TableSchema tableSchema, String partitionName,
+                                             TableMetrics partitionMetrics, List<TableChanges> changes) throws Exception {
+        BulkLoader loader = new BulkLoader(connection, partitionMetrics, changes != null);
+        SyncSummary summary = loader.loadRouted(tableSchema.forPartition(partitionName));
+        if (changes != null) changes.add(combine(tableSchema.getTableName(), List.of(loader.getChanges())));
+        return summary;
+    }
+
+    /**
+     * @return изменения секций, объединённые в изменения таблицы
+     */
+    private static TableChanges combine(String tableName, List<TableChanges> partitionChanges) {
+        List<String> inserted = new ArrayList<>();
+        Map<String, List<String>> updated = new LinkedHashMap<>();
+        List<String> deleted = new ArrayList<>();
+        for (TableChanges changes : partitionChanges) {
+            inserted.addAll(changes.inserted());
+            updated.putAll(changes.updated());
+            deleted.addAll(changes.deleted());
+        }
+        return new TableChanges(tableName, inserted, updated, deleted);
+    }
+
+    /**
+     * Отмечает в транзакции загрузки таблицы, что таблица загружена из версии снимка
+     */
+    private static void markSynced(Connection connection, CatalogSnapshot snapshot, String tableName) throws SQLException {
+        if (snapshot.getVersion() != null) {
+            BulkLoader.markSynced(connection, tableName, snapshot.getVersion(), snapshot.getTableNames());
+        }
+    }
+
+    /**
+     * @return версия фида, все таблицы которой загружены в бд, null если такой версии нет
+     */
+    private String syncedVersion() throws SQLException {
+        try (Connection connection = connection()) {
+            return BulkLoader.syncedVersion(connection);
+        }
+    }
+
+    /**
+     * @return список для изменений таблиц транзакции, null если получателей изменений нет
+     */
+    List<TableChanges> changeList() {
+        return options.getChangeSinks().isEmpty() ? null : new ArrayList<>();
+    }
+
+    /**
+     * Передаёт изменения транзакции получателям перед фиксацией (например, в outbox той же транзакции)
+     * @return изменения для afterCommit, null если изменений нет
+     */
+    ChangeSet beforeCommit(Connection connection, List<TableChanges> changes, String version) throws Exception {
+        if (changes == null) return null;
+        ChangeSet changeSet = new ChangeSet(version, Instant.now(), List.copyOf(changes));
+        if (changeSet.isEmpty()) return null;
+        for (ChangeSink sink : options.getChangeSinks()) sink.beforeCommit(connection, changeSet);
+        return changeSet;
+    }
+
+    /**
+     * Передаёт зафиксированные изменения получателям. Данные уже в бд, поэтому ошибка получателя только записывается в лог
+     */
+    void afterCommit(ChangeSet changeSet) {
+        if (changeSet == null) return;
+        for (ChangeSink sink : options.getChangeSinks()) {
+            try {
+                sink.afterCommit(changeSet);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Change sink failed after commit", e);
+            }
+        }
+    }
+
+    /**
+     * @return таблица замыкания, которую нужно обновить вместе с таблицей, null если не нужно
+     */
+    private CategoryClosure categoryClosure(String tableName) {
+        return options.isCategoryClosure() && tableName.equals(CategoryClosure.CATEGORIES_TABLE) ? new CategoryClosure() : null;
+    }
+
+    /**
+     * Строки таблицы из снимка; для categories родители категорий запоминаются для таблицы замыкания
+     */
+    private static RowSource rowSource(CatalogSnapshot snapshot, String tableName, CategoryClosure closure) {
+        RowSource rows = listener -> snapshot.forEachRow(tableName, listener);
+        return closure != null ? closure.collecting(rows) : rows;
+    }
+
+    private static void updateClosure(Connection connection, CategoryClosure closure, TableMetrics tableMetrics) throws SQLException {
+        if (closure == null) return;
+        long start = System.nanoTime();
+        closure.update(connection);
+        tableMetrics.addMergeNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Возобновляемая загрузка таблицы: строки фиксируются пакетами в промежуточной таблице,
+     * затем в текущей транзакции проверяется схема и основная таблица обновляется из промежуточной.
+     * При ошибке промежуточная таблица и контрольная точка сохраняются для следующей попытки
+     */
+    private SyncSummary updateTableResumable(Connection connection, CatalogSnapshot snapshot, String tableName,
+                                             boolean withChange, TableMetrics tableMetrics,
+                                             List<TableChanges> changes) throws Exception {
+        TableSchema newTableSchema = tableSchema(snapshot, tableName);
+        // Промежуточная таблица создаётся с типами, которые будут у таблицы после изменений
+        TableSchema targetSchema = targetSchema(newTableSchema, withChange);
+        CategoryClosure closure = categoryClosure(tableName);
+        BulkLoader loader = new BulkLoader(connection, tableMetrics, changes != null);
+        BulkLoader.createCheckpointsTable(connection);
+        long offset = loader.beginResumable(targetSchema, snapshot.getVersion());
+        long total = loader.copyResumable(targetSchema, offset, options.getCheckpointRows(),
+                rowSource(snapshot, tableName, closure));
+
+        boolean create = prepareTable(connection, newTableSchema, withChange, tableMetrics);
+        SyncSummary summary = loader.publishResumable(targetSchema, create, total);
+        loader.createIndexes(tableName, targetSchema.getIndexes(options.isParamIndex()));
+        updateClosure(connection, closure, tableMetrics);
+        if (changes != null) changes.add(loader.getChanges());
+        return summary;
+    }
+
+    /**
+     * Сравнивает схему таблицы из xml со схемой из бд, при withChange добавляет столбцы и расширяет типы
+     * @param connection соединение с бд
+     * @param newTableSchema схема таблицы из xml
+     * @param withChange добавлять ли новые столбцы и расширять ли типы существующих
+     * @param tableMetrics метрики обновления таблицы
+     * @return true, если таблицы нет в бд и её нужно создать
+     */
+    boolean prepareTable(Connection connection, TableSchema newTableSchema, boolean withChange,
+                         TableMetrics tableMetrics) throws Exception {
+        String tableName = newTableSchema.getTableName();
+        TableSchema oldTableSchema = schemaRegistry.get(tableName);
+        if (withChange && oldTableSchema != null) {
+            String tableChangeDDL = oldTableSchema.newColumnsSql(newTableSchema);
+            if (tableChangeDDL != null) {
+                long start = System.nanoTime();
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.executeUpdate(tableChangeDDL);
+                }
+                // Новые колонки заполняются во всех строках, а не только в изменившихся
+                BulkLoader.clearRowHashes(connection, rowHashNames(newTableSchema));
+                tableMetrics.addPayloadBytes(tableChangeDDL.length());
+                tableMetrics.addDdlNanos(System.nanoTime() - start);
+                oldTableSchema = newTableSchema;
             }
-            tableSchemas.put(tableName, newTableSchema);
         }
+        // Типы в бд могут быть шире выведенных из xml: тип колонки не сужается при смене версии фида
+        if (oldTableSchema != null && !oldTableSchema.canLoad(newTableSchema)) {
+            throw new Exception("Schema change in table " + tableName + "!");
+        }
+        return oldTableSchema == null;
+    }
+
+    /**
+     * @return названия, под которыми хранятся отпечатки строк таблицы (у секционированной таблицы - названия секций)
+     */
+    private static List<String> rowHashNames(TableSchema tableSchema) {
+        String tableName = tableSchema.getTableName();
+        List<String> names = new ArrayList<>(List.of(tableName));
+        if (tableSchema.getPartitioning() != null) names.addAll(tableSchema.getPartitioning().getPartitionNames(tableName));
+        return names;
+    }
+
+    /**
+     * Схема таблицы после обновления: схема из бд (с новыми столбцами и расширенными типами при withChange)
+     * с теми же проверками, что и prepareTable, но без изменения основной таблицы.
+     * С этой схемой создаются теневая и промежуточная таблицы
+     * @param newTableSchema схема таблицы из xml
+     * @param withChange добавлять ли новые столбцы и расширять ли типы существующих
+     * @return схема таблицы после обновления
+     */
+    private TableSchema targetSchema(TableSchema newTableSchema, boolean withChange) throws Exception {
+        String tableName = newTableSchema.getTableName();
+        TableSchema oldTableSchema = schemaRegistry.get(tableName);
+        if (oldTableSchema == null) return newTableSchema;
+        if (withChange) oldTableSchema = oldTableSchema.withChanges(newTableSchema);
+        if (!oldTableSchema.canLoad(newTableSchema)) {
+            throw new Exception("Schema change in table " + tableName + "!");
+        }
+        return oldTableSchema;
+    }
+
+    /**
+     * Сбрасывает кэш схемы таблицы, если при обновлении выполнялся DDL (таблица создана, добавлены или расширены столбцы),
+     * и запоминает версию фида, из которой загружена таблица
+     */
+    private void afterCommit(CatalogSnapshot snapshot, String tableName) throws SQLException {
+        afterCommit(tableSchema(snapshot, tableName), snapshot.getVersion());
+    }
+
+    /**
+     * @param tableSchema загруженная схема таблицы из xml
+     * @param version версия фида, из которой загружена таблица
+     */
+    void afterCommit(TableSchema tableSchema, String version) throws SQLException {
+        String tableName = tableSchema.getTableName();
+        TableSchema registrySchema = schemaRegistry.get(tableName);
+        if (registrySchema == null || !registrySchema.canLoad(tableSchema)) schemaRegistry.invalidate(tableName);
+        if (version != null) syncedVersions.put(tableName, version);
+    }
+
+    private static <T> Map<String, T> orderedBy(List<String> tableNames, Map<String, T> values) {
+        Map<String, T> result = new LinkedHashMap<>();
+        for (String tableName : tableNames) {
+            if (values.containsKey(tableName)) result.put(tableName, values.get(tableName));
+        }
+        return result;
+    }
 
-        update(tableName);
+    /**
+     * Перечитывает схемы таблиц из бд и сбрасывает отпечатки строк, поэтому следующее обновление
+     * записывает все строки таблиц заново.
+     * Нужно вызывать, если таблицы (схема или строки) менялись в обход сервиса
+     */
+    public void refreshSchemas() throws SQLException {
+        try (Connection connection = connection()) {
+            connection.setAutoCommit(true);
+            BulkLoader.clearRowHashes(connection);
+            // Следующий sync() загружает фид, даже если его версия не изменилась
+            BulkLoader.clearSyncedVersions(connection);
+        }
+        schemaRegistry.refresh();
+        // Данные тоже могли измениться, статистика фида больше не описывает таблицы
+        syncedVersions.clear();
     }
 
     /** Возвращает наименования всех столбцов таблицы
@@ -233,128 +877,200 @@ public class XmlDBService {
      * @return наименования всех столбцов таблицы
      */
     public ArrayList<String> getColumnNames(String tableName) throws SQLException {
-        loadSchemasFromDb();
-        TableSchema tableSchema = tableSchemas.get(tableName);
+        TableSchema tableSchema = schemaRegistry.get(tableName);
         return tableSchema.getColumnNames();
     }
 
     /**
-     * Возвращает true, если столбец не имеет повторяющихся значений
+     * Возвращает категорию и все её подкатегории (по таблице замыкания, см. SyncOptions.categoryClosure)
+     * @param categoryId id категории
+     * @return id категорий поддерева, пустой список если категории нет
+     */
+    public List<String> getCategorySubtree(String categoryId) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        try (Connection connection = connection();
+             PreparedStatement statement = connection.prepareStatement("SELECT descendant_id::varchar FROM " +
+                     CategoryClosure.CLOSURE_TABLE + " WHERE ancestor_id = ? ORDER BY depth, descendant_id")) {
+            // Тип параметра выводит сервер по типу ancestor_id, поэтому используется индекс
+            statement.setObject(1, categoryId, Types.OTHER);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) ids.add(resultSet.getString(1));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Возвращает true, если столбец не имеет повторяющихся значений.
+     * Если таблица загружена из текущей версии фида, ответ берётся из статистики, собранной при разборе xml,
+     * иначе проверяется в бд
      * @param tableName название таблицы
      * @param columnName название столбца
      * @return true, если столбец не имеет повторяющихся значений, иначе false
      */
-    public boolean isColumnId(String tableName, String columnName) throws SQLException {
-        String query = String.format("SELECT COUNT(DISTINCT %s) = COUNT(*) AS is_unique FROM %s", columnName, tableName);
-        Statement statement = sqlConnection.createStatement();
-        ResultSet resultSet = statement.executeQuery(query);
-        resultSet.next();
-        return resultSet.getBoolean("is_unique");
+    public boolean isColumnId(String tableName, String columnName) throws Exception {
+        CatalogSnapshot snapshot = snapshot();
+        if (Objects.equals(syncedVersions.get(tableName), snapshot.getVersion())) {
+            ColumnStats stats = snapshot.getColumnStats(tableName).get(columnName.toLowerCase());
+            Boolean isUnique = stats != null ? stats.isUnique() : null;
+            if (isUnique != null) return isUnique;
+        }
+        return isColumnIdInDb(tableName, columnName);
     }
 
     /**
-     * Возвращает sql запрос для создания новых столбцов таблицы на основе xml
+     * Возвращает статистику столбцов таблицы, собранную при разборе xml
      * @param tableName название таблицы
-     * @return sql запрос для создания новых столбцов таблицы.
-     * Примечание: создаются пустые колонки. Для их заполнения использовать после создания столбцов update(tableName).
+     * @return статистика по столбцам: количество различных значений, null значений и максимальная длина
      */
-    public String getDDLChange(String tableName) throws Exception {
-        TableSchema oldTableSchema = tableSchemas.getOrDefault(tableName, new TableSchema(tableName));
-        TableSchema newTableSchema = getTableSchema(tableName);
-        return oldTableSchema.newColumnsSql(newTableSchema);
+    public Map<String, ColumnStats> getColumnStats(String tableName) throws Exception {
+        return snapshot().getColumnStats(tableName);
     }
 
     /**
-     * Возвращает схему таблицы из xml
-     * @param tableName название таблицы
-     * @return схема таблицы
+     * Проверка уникальности столбца в бд. При наличии уникального индекса по столбцу
+     * достаточно проверить отсутствие null значений (по индексу), иначе выполняется полный подсчёт
      */
-    private TableSchema getTableSchema(String tableName) {
-        GPathResult shop = (GPathResult)yml_catalog.getProperty("shop");
-        GPathResult tableContent = (GPathResult)shop.getProperty(tableName);
-
-        // Список ключей в тегах записей
-        Set<String> tagKeySet = new HashSet<>();
-
-        for (Object row: tableContent.children()) {
-            // Обновление списка ключей тегов (и nullable тегов) записей
-            NodeChild rowNodeChild = (NodeChild)row;
-            Set<String> newTagNames = new HashSet<>();
-
-            // Добавляем в записи теги в качестве ключей
-            for (Object child: rowNodeChild.children()) {
-                newTagNames.add(((GPathResult) child).name());
+    private boolean isColumnIdInDb(String tableName, String columnName) throws SQLException {
+        try (Connection connection = connection()) {
+            boolean hasUniqueIndex;
+            try (PreparedStatement statement = connection.prepareStatement(UNIQUE_INDEX_SQL)) {
+                statement.setString(1, schemaName);
+                statement.setString(2, tableName);
+                statement.setString(3, columnName.toLowerCase());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    hasUniqueIndex = resultSet.next();
+                }
             }
 
-            // Если в записи нет тегов, но есть содержимое, добавляем ключ "data"
-            if (newTagNames.isEmpty() & !Objects.equals(rowNodeChild.text(), "")) newTagNames.add("data");
-            @SuppressWarnings("unchecked")
-            Map<String, String> attributes = (Map<String, String>)(rowNodeChild).attributes();
-            Set<String> newAttributeKeys = new HashSet<>(attributes.keySet());
-            newAttributeKeys.addAll(newTagNames);
-            tagKeySet.addAll(newAttributeKeys);
+            String query = hasUniqueIndex
+                    ? String.format("SELECT NOT EXISTS (SELECT 1 FROM %s WHERE %s IS NULL) AS is_unique", tableName, columnName)
+                    : String.format("SELECT COUNT(DISTINCT %s) = COUNT(*) AS is_unique FROM %s", columnName, tableName);
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(query)) {
+                resultSet.next();
+                return resultSet.getBoolean("is_unique");
+            }
         }
+    }
 
-        // Сортировка колонок для сохранения их порядка
-        List<String> tagKeyList = tagKeySet.stream().toList();
-        return getTableSchema(tableName, tagKeyList);
+    /**
+     * Возвращает sql запрос для создания новых столбцов таблицы на основе xml
+     * @param tableName название таблицы
+     * @return sql запрос для создания новых столбцов таблицы и расширения типов существующих.
+     * Примечание: создаются пустые колонки. Для их заполнения после выполнения запроса вызвать refreshSchemas()
+     * и update(tableName); updateWithChange(tableName) выполняет запрос и заполняет колонки сам.
+     */
+    public String getDDLChange(String tableName) throws Exception {
+        TableSchema oldTableSchema = schemaRegistry.get(tableName);
+        if (oldTableSchema == null) oldTableSchema = new TableSchema(tableName);
+        TableSchema newTableSchema = tableSchema(snapshot(), tableName);
+        return oldTableSchema.newColumnsSql(newTableSchema);
     }
 
-    private static TableSchema getTableSchema(String tableName, List<String> tagKeyList) {
-        List<String> tagKeyConstrains = new ArrayList<>();
-        List<String> tagKeyTypes = new ArrayList<>();
-        for (String key: tagKeyList) {
-            String keyLowerCase = key.toLowerCase();
-            if (Objects.equals(keyLowerCase, "param")) tagKeyTypes.add("jsonb");
-            else tagKeyTypes.add("varchar");
-            if (Objects.equals(keyLowerCase, "id")) tagKeyConstrains.add("PRIMARY KEY");
-            else tagKeyConstrains.add("");
+    /**
+     * Формирование блока обновления для ON CONFLICT
+     * @param columnNames колонки таблицы
+     * @return sql блока ON CONFLICT
+     */
+    static String onConflictSql(List<String> columnNames) {
+        StringJoiner updateSet = new StringJoiner(", ");
+        for (String col : columnNames) {
+            if (!col.equalsIgnoreCase("id")) {
+                updateSet.add(col + " = EXCLUDED." + col);
+            }
         }
+        return "ON CONFLICT (id) DO UPDATE SET " + updateSet;
+    }
 
-        int size = Math.min(tagKeyList.size(), Math.min(tagKeyConstrains.size(), tagKeyTypes.size()));
-        TableSchema tableSchema = new TableSchema(tableName);
-        for (int i = 0; i < size; i++) {
-            tableSchema.addColumn(tagKeyList.get(i).toLowerCase(), tagKeyTypes.get(i), tagKeyConstrains.get(i));
+    /**
+     * Возвращает снимок последней полученной версии фида, при изменении версии xml разбирается заново
+     */
+    private synchronized CatalogSnapshot snapshot() throws Exception {
+        if (snapshot == null || !Objects.equals(snapshot.getVersion(), feedSource.version())) {
+            long start = System.nanoTime();
+            ParamPromotion promotion = options.getParamPromotion();
+            if (promotion != null) promotion = promotion.withExistingColumns(paramColumns());
+            snapshot = CatalogSnapshot.load(feedSource, options.isStreaming(), options.getExactDistinctLimit(),
+                    options.getParseParallelism(), promotion);
+            metrics.recordParse(System.nanoTime() - start, snapshot.getSchemaNanos());
         }
-        tableSchema.sortColumns();
-        return tableSchema;
+        return snapshot;
     }
 
-    private void loadSchemasFromDb() throws SQLException {
-        DatabaseMetaData meta = sqlConnection.getMetaData();
-
-        // 1. Получаем список всех пользовательских таблиц
-        try (ResultSet rsTables = meta.getTables(null, "public", null, new String[]{"TABLE"})) {
-            while (rsTables.next()) {
-                String tableName = rsTables.getString("TABLE_NAME");
-                TableSchema schema = new TableSchema(tableName);
+    /**
+     * Схема таблицы из xml с секционированием из настроек
+     */
+    private TableSchema tableSchema(CatalogSnapshot snapshot, String tableName) {
+        return snapshot.getTableSchema(tableName).withPartitioning(options.getPartitioning(tableName));
+    }
 
-                Set<String> pkColumns = new HashSet<>();
-                try (ResultSet pks = meta.getPrimaryKeys(null, "public", tableName)) {
-                    while (pks.next()) {
-                        pkColumns.add(pks.getString("COLUMN_NAME"));
-                    }
+    /**
+     * Колонки параметров, уже созданные в бд: они остаются в схеме таблицы, даже если параметр стал редким
+     * @return таблица -> колонка -> тип колонки
+     */
+    private Map<String, Map<String, String>> paramColumns() throws SQLException {
+        Map<String, Map<String, String>> columns = new HashMap<>();
+        try (Connection connection = connection();
+             PreparedStatement statement = connection.prepareStatement(PARAM_COLUMNS_SQL)) {
+            statement.setString(1, schemaName);
+            statement.setString(2, TableSchema.PARAM_COLUMN_PREFIX);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    columns.computeIfAbsent(resultSet.getString("table_name"), k -> new HashMap<>())
+                            .put(resultSet.getString("column_name"), resultSet.getString("type_name"));
                 }
-                // 2. Для каждой таблицы получаем список её колонок
-                try (ResultSet rsColumns = meta.getColumns(null, "public", tableName, null)) {
+            }
+        }
+        return columns;
+    }
 
-                    while (rsColumns.next()) {
-                        String columnName = rsColumns.getString("COLUMN_NAME");
-                        String columnType = rsColumns.getString("TYPE_NAME");
+    private PipelinedSync pipeline() {
+        return new PipelinedSync(this, feedSource, options, metrics);
+    }
 
-                        // Формируем ограничения (constraints)
-                        String constraints = pkColumns.contains(columnName) ? "PRIMARY KEY" : "";
+    /**
+     * @return схема бд, в которой находятся таблицы фида
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
 
-                        // Добавляем колонку в схему
-                        schema.addColumn(columnName.toLowerCase(), columnType, constraints);
+    /**
+     * Соединение из пула, в котором таблицы без схемы ищутся и создаются в схеме сервиса.
+     * search_path устанавливается при каждом получении: пул может быть общим для сервисов с разными схемами
+     */
+    Connection connection() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try (Statement stmt = connection.createStatement()) {
+            if (!schemaReady) {
+                // CREATE SCHEMA IF NOT EXISTS требует права на создание схем даже для существующей схемы
+                try (PreparedStatement exists = connection.prepareStatement("SELECT 1 FROM pg_catalog.pg_namespace WHERE nspname = ?")) {
+                    exists.setString(1, schemaName);
+                    try (ResultSet resultSet = exists.executeQuery()) {
+                        if (!resultSet.next()) stmt.execute("CREATE SCHEMA IF NOT EXISTS " + quotedSchemaName());
                     }
                 }
-
-                schema.sortColumns();
-
-                // 3. Сохраняем в вашу карту
-                tableSchemas.put(tableName, schema);
+                schemaReady = true;
             }
+            stmt.execute("SET search_path TO " + quotedSchemaName());
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
         }
+        return connection;
+    }
+
+    private String quotedSchemaName() {
+        return "\"" + schemaName.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Получает фид с записью времени и объёма загрузки
+     */
+    private void fetch() throws Exception {
+        long start = System.nanoTime();
+        feedSource.fetch();
+        metrics.recordFetch(System.nanoTime() - start, feedSource.fetchedBytes());
     }
 }
@@ -0,0 +1,90 @@
+package org.example.catalog;
+
+import org.example.feed.FeedSource;
+import org.example.feed.FileFeedSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Потоковый снимок читает строки из версии фида, по которой он создан
+ */
+class CatalogSnapshotTest {
+    private static final String FEED = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <yml_catalog date="2024-01-01 10:00">
+              <shop>
+                <currencies>
+                  <currency id="RUR" rate="1"/>
+                  <currency id="USD" rate="90.5"/>
+                </currencies>
+              </shop>
+            </yml_catalog>
+            """;
+    private static final String CHANGED_FEED = FEED.replace("USD", "EUR");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void streamingSnapshotIgnoresNewerFeed() throws Exception {
+        Path file = Files.writeString(directory.resolve("feed.xml"), FEED);
+        FileFeedSource feedSource = new FileFeedSource(file);
+        feedSource.fetch();
+        CatalogSnapshot snapshot = CatalogSnapshot.load(feedSource, true, 100);
+
+        // Следующая версия фида получена после создания снимка
+        replace(file, CHANGED_FEED);
+        feedSource.fetch();
+        assertEquals(List.of("RUR", "USD"), ids(snapshot));
+    }
+
+    @Test
+    void versionChangeDuringLoadFails() throws Exception {
+        Path file = Files.writeString(directory.resolve("feed.xml"), FEED);
+        FileFeedSource delegate = new FileFeedSource(file);
+        delegate.fetch();
+        // Новая версия получена, пока снимок копирует документ
+        FeedSource feedSource = new FeedSource() {
+            @Override
+            public void fetch() throws IOException {
+                delegate.fetch();
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                InputStream in = delegate.open();
+                replace(file, CHANGED_FEED);
+                delegate.fetch();
+                return in;
+            }
+
+            @Override
+            public String version() {
+                return delegate.version();
+            }
+        };
+        assertThrows(IOException.class, () -> CatalogSnapshot.load(feedSource, true, 100));
+    }
+
+    private static void replace(Path file, String xml) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        Files.writeString(file, xml);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+    }
+
+    private static List<String> ids(CatalogSnapshot snapshot) throws Exception {
+        List<String> ids = new ArrayList<>();
+        snapshot.forEachRow("currencies", (tableName, row) -> ids.add(row.get("id")));
+        return ids;
+    }
+}
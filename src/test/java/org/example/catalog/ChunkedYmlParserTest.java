@@ -0,0 +1,158 @@
+package org.example.catalog;
+
+import org.example.benchmark.YmlCatalogGenerator;
+import org.example.feed.FileFeedSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Разбор частями (ChunkedYmlParser) даёт те же строки, что и последовательный разбор YmlStreamParser
+ */
+class ChunkedYmlParserTest {
+    // Около 9 МБ: больше MIN_FILE_SIZE
+    private static final int OFFERS = 20_000;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Строки всех таблиц в порядке документа
+     */
+    private static final class Rows implements RowListener {
+        private final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void row(String tableName, Map<String, String> row) {
+            rows.add(tableName + " " + new TreeMap<>(row));
+        }
+    }
+
+    private static String catalog() {
+        return catalog(OFFERS);
+    }
+
+    private static String catalog(int offers) {
+        return new String(new YmlCatalogGenerator(offers, 4, 3).toBytes(), StandardCharsets.UTF_8);
+    }
+
+    private Path write(String xml) throws Exception {
+        return Files.writeString(Files.createTempFile(directory, "catalog", ".xml"), xml);
+    }
+
+    private static List<String> sequential(Path file) throws Exception {
+        Rows rows = new Rows();
+        try (InputStream in = Files.newInputStream(file)) {
+            YmlStreamParser.parse(in, rows);
+        }
+        return rows.rows;
+    }
+
+    /**
+     * @return строки частей, null если файл разбирается последовательно
+     */
+    private static List<String> chunked(Path file) throws Exception {
+        List<Rows> parts = ChunkedYmlParser.parse(file, 4, Rows::new);
+        if (parts == null) return null;
+        assertTrue(parts.size() > 3, "offers are split into several chunks");
+        List<String> rows = new ArrayList<>();
+        parts.forEach(part -> rows.addAll(part.rows));
+        return rows;
+    }
+
+    /**
+     * Дописывает пробелы после корневого элемента до нужного размера файла
+     */
+    private static String padTo(String xml, long size) {
+        long length = xml.getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(length <= size, "catalog is smaller than " + size);
+        return xml + " ".repeat((int) (size - length));
+    }
+
+    @Test
+    void chunkedRowsMatchSequentialParse() throws Exception {
+        Path file = write(catalog());
+        List<String> expected = sequential(file);
+        assertEquals(expected, chunked(file));
+        assertEquals(OFFERS, expected.stream().filter(row -> row.startsWith("offers ")).count());
+    }
+
+    @Test
+    void smallFileIsParsedSequentially() throws Exception {
+        String xml = catalog(OFFERS / 4);
+        assertNull(chunked(write(padTo(xml, ChunkedYmlParser.MIN_FILE_SIZE - 1))));
+
+        Path file = write(padTo(xml, ChunkedYmlParser.MIN_FILE_SIZE));
+        assertEquals(sequential(file), chunked(file));
+    }
+
+    @Test
+    void rootAttributesAndNamespacesReachEveryChunk() throws Exception {
+        // Префикс, объявленный в yml_catalog, и сущность из внутреннего DTD используются в каждом offer
+        String xml = catalog()
+                .replace("<!DOCTYPE yml_catalog SYSTEM \"shops.dtd\">",
+                        "<!DOCTYPE yml_catalog [<!ENTITY shop \"Shop &amp; Co\">]>")
+                .replace("<yml_catalog date=\"2024-01-01 10:00\">",
+                        "<yml_catalog date=\"2024-01-01 10:00\" xmlns:g=\"http://base.google.com/ns/1.0\">")
+                .replace("<shop>", "<shop version=\"2\">")
+                .replace("<offers>", "<offers count=\"" + OFFERS + "\">")
+                .replace("<vendorCode>", "<g:brand>&shop;</g:brand><vendorCode>");
+        Path file = write(xml);
+        List<String> expected = sequential(file);
+        assertTrue(expected.get(expected.size() - 1).contains("brand=Shop & Co"));
+        assertEquals(expected, chunked(file));
+    }
+
+    @Test
+    void offerTagInsideCdataOrCommentFallsBackToSequentialParse() throws Exception {
+        // Граница диапазона ищется после середины, которая почти наверняка попадает в длинный CDATA или комментарий.
+        // 4000 предложений по ~2.5 КБ - больше MIN_FILE_SIZE
+        String padding = "x".repeat(2000);
+        String cdata = catalog(OFFERS / 5).replace("<description>",
+                "<description><![CDATA[" + padding + " <offer id=\"0\">]]>");
+        String comment = catalog(OFFERS / 5).replace("<vendorCode>",
+                "<!-- " + padding + " <offer id=\"0\"> --><vendorCode>");
+        for (String xml : List.of(cdata, comment)) {
+            Path file = write(xml);
+            assertThrows(ChunkedYmlParser.ChunkParseException.class, () -> chunked(file));
+
+            // Снимок после неудачного разбиения разбирает файл последовательно
+            List<String> expected = sequential(file);
+            assertEquals(expected, snapshotRows(file, 4));
+            assertEquals(expected, snapshotRows(file, 1));
+        }
+    }
+
+    @Test
+    void snapshotFromChunksMatchesSequentialSnapshot() throws Exception {
+        FileFeedSource source = new FileFeedSource(write(catalog()));
+        source.fetch();
+        CatalogSnapshot sequential = CatalogSnapshot.load(source, false, 100_000, 1);
+        CatalogSnapshot chunked = CatalogSnapshot.load(source, false, 100_000, 4);
+        assertEquals(sequential.getTableNames(), chunked.getTableNames());
+        for (String tableName : sequential.getTableNames()) {
+            assertEquals(sequential.getTableSchema(tableName), chunked.getTableSchema(tableName));
+            assertEquals(sequential.getColumnStats(tableName).toString(), chunked.getColumnStats(tableName).toString());
+        }
+        assertEquals(snapshotRows(sequential), snapshotRows(chunked));
+    }
+
+    private static List<String> snapshotRows(Path file, int parallelism) throws Exception {
+        FileFeedSource source = new FileFeedSource(file);
+        source.fetch();
+        return snapshotRows(CatalogSnapshot.load(source, false, 100_000, parallelism));
+    }
+
+    private static List<String> snapshotRows(CatalogSnapshot snapshot) throws Exception {
+        Rows rows = new Rows();
+        for (String tableName : snapshot.getTableNames()) snapshot.forEachRow(tableName, rows);
+        return rows.rows;
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.catalog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactRowsTest {
+    /**
+     * Копии строк в порядке прохода
+     */
+    private static List<Map<String, String>> copies(CompactRows rows) throws Exception {
+        List<Map<String, String>> result = new ArrayList<>();
+        rows.forEach("offers", (tableName, row) -> result.add(new HashMap<>(row)));
+        return result;
+    }
+
+    private static Map<String, String> row(String... keysAndValues) {
+        Map<String, String> row = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) row.put(keysAndValues[i], keysAndValues[i + 1]);
+        return row;
+    }
+
+    @Test
+    void rowsKeepValuesAndColumnsAddedLater() throws Exception {
+        CompactRows rows = new CompactRows();
+        rows.add(row("id", "1", "price", "10"));
+        rows.add(row("id", "2", "vendor", "Acme"));
+        assertEquals(List.of(row("id", "1", "price", "10"), row("id", "2", "vendor", "Acme")), copies(rows));
+        assertEquals(2, rows.size());
+    }
+
+    @Test
+    void emptyStringIsKeptAndNullIsAbsent() throws Exception {
+        CompactRows rows = new CompactRows();
+        rows.add(row("id", "1", "name", "", "vendor", null));
+        rows.forEach("offers", (tableName, row) -> {
+            assertEquals("", row.get("name"));
+            assertTrue(row.containsKey("name"));
+            assertNull(row.get("vendor"));
+            assertFalse(row.containsKey("vendor"));
+            assertFalse(row.containsKey("unknown"));
+            assertEquals(Set.of("id", "name"), row.keySet());
+            assertEquals(2, row.size());
+        });
+    }
+
+    @Test
+    void repeatedValuesShareOneInstanceUpToDictionaryLimit() throws Exception {
+        CompactRows rows = new CompactRows();
+        // currencyid - несколько значений на все строки, id - уникальные значения
+        for (int i = 0; i < 5000; i++) {
+            rows.add(row("id", String.valueOf(i), "currencyid", new String(i % 2 == 0 ? "RUR" : "USD")));
+        }
+        // После 4096 различных значений словарь колонки id отключён, значения хранятся как есть
+        rows.add(row("id", new String("1"), "currencyid", new String("RUR")));
+        rows.add(row("id", new String("1"), "currencyid", new String("RUR")));
+
+        List<String> ids = new ArrayList<>();
+        List<String> currencies = new ArrayList<>();
+        rows.forEach("offers", (tableName, row) -> {
+            ids.add(row.get("id"));
+            currencies.add(row.get("currencyid"));
+        });
+        assertEquals(5002, ids.size());
+        assertEquals(String.valueOf(4999), ids.get(4999));
+        assertSame(currencies.get(0), currencies.get(5000));
+        assertSame(currencies.get(1), currencies.get(3));
+        assertEquals("1", ids.get(5000));
+        assertNotSame(ids.get(5000), ids.get(5001));
+    }
+
+    @Test
+    void valuesBeforeDictionaryLimitAreStillShared() throws Exception {
+        CompactRows rows = new CompactRows();
+        for (int i = 0; i < 4096; i++) rows.add(row("vendor", "v" + i));
+        rows.add(row("vendor", new String("v1")));
+        List<String> vendors = new ArrayList<>();
+        rows.forEach("offers", (tableName, row) -> vendors.add(row.get("vendor")));
+        assertSame(vendors.get(1), vendors.get(4096));
+    }
+
+    @Test
+    void addAllMapsColumnsOfAnotherPart() throws Exception {
+        CompactRows first = new CompactRows();
+        first.add(row("id", "1", "price", "10"));
+        CompactRows second = new CompactRows();
+        second.add(row("vendor", "Acme", "id", "2"));
+        second.add(row("id", "3", "price", "30"));
+        first.addAll(second);
+        first.trim();
+        assertEquals(List.of(row("id", "1", "price", "10"), row("id", "2", "vendor", "Acme"), row("id", "3", "price", "30")),
+                copies(first));
+    }
+
+    @Test
+    void retainedViewShowsLaterRowsButCopiesDoNot() throws Exception {
+        CompactRows rows = new CompactRows();
+        rows.add(row("id", "1", "price", "10"));
+        rows.add(row("id", "2", "vendor", "Acme"));
+
+        List<Map<String, String>> retained = new ArrayList<>();
+        List<Map<String, String>> copies = new ArrayList<>();
+        List<Set<Map.Entry<String, String>>> entrySets = new ArrayList<>();
+        rows.forEach("offers", (tableName, row) -> {
+            retained.add(row);
+            copies.add(new HashMap<>(row));
+            entrySets.add(row.entrySet());
+        });
+
+        // Одно представление на весь проход: сохранённая ссылка видит последнюю строку
+        assertSame(retained.get(0), retained.get(1));
+        assertEquals("2", retained.get(0).get("id"));
+        assertNull(retained.get(0).get("price"));
+        // Копия и entrySet, полученные во время вызова, относятся к своей строке
+        assertEquals(row("id", "1", "price", "10"), copies.get(0));
+        assertEquals(row("id", "1", "price", "10").entrySet(), new HashSet<>(entrySets.get(0)));
+    }
+}
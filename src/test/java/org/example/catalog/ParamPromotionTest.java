@@ -0,0 +1,42 @@
+package org.example.catalog;
+
+import org.junit.jupiter.api.Test;
+
+import static org.example.catalog.ParamPromotion.columnName;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParamPromotionTest {
+    @Test
+    void columnNameIsLowercaseLatin() {
+        assertEquals("param_size", columnName("Size"));
+        assertEquals("param_tsvet", columnName("Цвет"));
+        assertEquals("param_obem", columnName("Объём"));
+        assertEquals("param_shchetka", columnName("Щётка"));
+        assertEquals("param_3d", columnName("3D"));
+    }
+
+    @Test
+    void otherCharactersCollapseToOneUnderscore() {
+        assertEquals("param_razmer_sm", columnName("Размер, см"));
+        assertEquals("param_size_cm", columnName("  size (cm)  "));
+        assertEquals("param_a_b", columnName("a -- b"));
+    }
+
+    @Test
+    void nameWithoutLettersIsHashed() {
+        String name = columnName("数量");
+        assertTrue(name.matches("param_[0-9a-f]+"), name);
+        assertEquals(name, columnName("数量"));
+        assertNotEquals(name, columnName("价格"));
+    }
+
+    @Test
+    void longNameIsTruncated() {
+        String name = columnName("Очень длинное название параметра товара из фида");
+        assertEquals(40, name.length());
+        assertTrue(name.startsWith("param_ochen_dlinnoe_nazvanie"), name);
+        // Обрезка по заменённому символу не оставляет _ в конце
+        String truncated = columnName("a".repeat(33) + " b");
+        assertEquals("param_" + "a".repeat(33), truncated);
+    }
+}
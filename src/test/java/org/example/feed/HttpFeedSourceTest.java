@@ -0,0 +1,229 @@
+package org.example.feed;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpFeedSourceTest {
+    private static final String XML = "<yml_catalog><shop><currencies><currency id=\"RUR\" rate=\"1\"/></currencies></shop></yml_catalog>";
+
+    @TempDir
+    Path directory;
+    private HttpServer server;
+    // Ответ сервера: статус, ETag и сжимать ли содержимое
+    private volatile int status = 200;
+    private volatile String etag = "\"v1\"";
+    private volatile boolean gzip;
+    private volatile String body = XML;
+    // Сервер принимает запрос, но не отвечает, пока тест не закончится
+    private volatile boolean stall;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final List<String> ifNoneMatch = new ArrayList<>();
+    private final List<String> acceptEncoding = new ArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/feed.xml", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        stopped.countDown();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (stall) {
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (ifNoneMatch) {
+            ifNoneMatch.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            acceptEncoding.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        String requestEtag = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (status == 200 && etag.equals(requestEtag)) {
+            exchange.sendResponseHeaders(304, -1);
+        } else if (status == 200) {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                    out.write(content);
+                }
+                content = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        } else {
+            exchange.sendResponseHeaders(status, -1);
+        }
+        exchange.close();
+    }
+
+    private HttpFeedSource source() throws IOException {
+        return new HttpFeedSource("http://localhost:" + server.getAddress().getPort() + "/feed.xml", new FeedCache(directory));
+    }
+
+    private HttpFeedSource source(Duration requestTimeout) throws IOException {
+        return new HttpFeedSource("http://localhost:" + server.getAddress().getPort() + "/feed.xml", new FeedCache(directory),
+                requestTimeout);
+    }
+
+    private static String read(FeedSource source) throws IOException {
+        try (InputStream in = source.open()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void gzipBodyIsStoredDecompressed() throws IOException {
+        gzip = true;
+        HttpFeedSource source = source();
+        source.fetch();
+
+        assertEquals("gzip", acceptEncoding.get(0));
+        assertEquals(XML, read(source));
+        assertEquals(XML.length(), source.fetchedBytes());
+        assertNotNull(source.version());
+    }
+
+    @Test
+    void notModifiedKeepsCachedVersion() throws IOException {
+        HttpFeedSource source = source();
+        source.fetch();
+        String version = source.version();
+
+        source.fetch();
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+        assertEquals(0, source.fetchedBytes());
+        assertEquals(version, source.version());
+        assertEquals(XML, read(source));
+    }
+
+    @Test
+    void validatorsSurviveRestart() throws IOException {
+        source().fetch();
+        // Новый процесс с тем же каталогом кэша
+        HttpFeedSource source = source();
+        source.fetch();
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+        assertEquals(0, source.fetchedBytes());
+        assertEquals(XML, read(source));
+    }
+
+    @Test
+    void sameContentWithNewEtagKeepsVersion() throws IOException {
+        HttpFeedSource source = source();
+        source.fetch();
+        String version = source.version();
+
+        etag = "\"v2\"";
+        source.fetch();
+        assertEquals(XML.length(), source.fetchedBytes());
+        assertEquals(version, source.version());
+
+        body = XML.replace("RUR", "USD");
+        etag = "\"v3\"";
+        source.fetch();
+        assertNotEquals(version, source.version());
+    }
+
+    @Test
+    void tapSkipsOnlySyncedVersion() throws IOException {
+        HttpFeedSource source = source();
+        ByteArrayOutputStream tap = new ByteArrayOutputStream();
+        assertTrue(source.fetch(tap, null));
+        assertEquals(XML, tap.toString(StandardCharsets.UTF_8));
+
+        // 304: содержимое из кэша передаётся, только если эта версия не загружена в бд
+        ByteArrayOutputStream notSynced = new ByteArrayOutputStream();
+        assertTrue(source.fetch(notSynced, "other"));
+        assertEquals(XML, notSynced.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream synced = new ByteArrayOutputStream();
+        assertFalse(source.fetch(synced, source.version()));
+        assertEquals(0, synced.size());
+    }
+
+    @Test
+    void serverErrorFallsBackToCache() throws IOException {
+        HttpFeedSource source = source();
+        source.fetch();
+        String version = source.version();
+
+        status = 503;
+        source.fetch();
+        assertEquals(version, source.version());
+        assertEquals(0, source.fetchedBytes());
+        assertEquals(XML, read(source));
+
+        server.stop(0);
+        source.fetch();
+        assertEquals(version, source.version());
+    }
+
+    @Test
+    void errorWithoutCacheFails() {
+        status = 503;
+        assertThrows(IOException.class, () -> source().fetch());
+        status = 404;
+        assertThrows(IOException.class, () -> source().fetch());
+    }
+
+    @Test
+    void clientErrorIsNotHiddenByCache() throws IOException {
+        HttpFeedSource source = source();
+        source.fetch();
+        status = 404;
+        assertThrows(IOException.class, source::fetch);
+    }
+
+    @Test
+    void stalledServerFallsBackToCache() throws IOException {
+        HttpFeedSource source = source(Duration.ofMillis(200));
+        source.fetch();
+        String version = source.version();
+
+        stall = true;
+        source.fetch();
+        assertEquals(version, source.version());
+        assertEquals(0, source.fetchedBytes());
+        assertEquals(XML, read(source));
+    }
+
+    @Test
+    void stalledServerWithoutCacheFails() throws IOException {
+        stall = true;
+        HttpFeedSource source = source(Duration.ofMillis(200));
+        assertThrows(HttpTimeoutException.class, source::fetch);
+    }
+}
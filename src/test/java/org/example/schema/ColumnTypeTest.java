@@ -0,0 +1,87 @@
+package org.example.schema;
+
+import org.junit.jupiter.api.Test;
+
+import static org.example.schema.ColumnType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnTypeTest {
+    @Test
+    void inferChoosesNarrowestLosslessType() {
+        assertEquals(BOOLEAN, infer("true"));
+        assertEquals(BOOLEAN, infer("false"));
+        assertEquals(VARCHAR, infer("True"));
+
+        assertEquals(INTEGER, infer("0"));
+        assertEquals(INTEGER, infer("2147483647"));
+        assertEquals(INTEGER, infer("-2147483648"));
+        assertEquals(BIGINT, infer("2147483648"));
+        assertEquals(BIGINT, infer("-2147483649"));
+        assertEquals(BIGINT, infer("9223372036854775807"));
+        assertEquals(NUMERIC, infer("9223372036854775808"));
+        assertEquals(NUMERIC, infer("123456789012345678901234567890"));
+
+        assertEquals(NUMERIC, infer("1.50"));
+        assertEquals(NUMERIC, infer("-0.5"));
+        assertEquals(NUMERIC, infer("0.0"));
+
+        assertEquals(TIMESTAMP, infer("2024-01-01 10:00"));
+        assertEquals(TIMESTAMP, infer("2024-01-01T10:00:59"));
+    }
+
+    @Test
+    void inferKeepsTextualFormAsVarchar() {
+        // Ведущие нули, знак, экспонента и неполные дроби потерялись бы при хранении числом
+        assertEquals(VARCHAR, infer("007"));
+        assertEquals(VARCHAR, infer("-0"));
+        assertEquals(VARCHAR, infer("-0.0"));
+        assertEquals(VARCHAR, infer("+1"));
+        assertEquals(VARCHAR, infer("1e5"));
+        assertEquals(VARCHAR, infer(".5"));
+        assertEquals(VARCHAR, infer("1."));
+        assertEquals(VARCHAR, infer("1,5"));
+        assertEquals(VARCHAR, infer(" 1"));
+        assertEquals(VARCHAR, infer(""));
+        // Несуществующая дата и дата без времени
+        assertEquals(VARCHAR, infer("2024-02-30 10:00"));
+        assertEquals(VARCHAR, infer("2024-01-01"));
+    }
+
+    @Test
+    void widenFollowsNumericChain() {
+        assertEquals(BIGINT, INTEGER.widen(BIGINT));
+        assertEquals(BIGINT, BIGINT.widen(INTEGER));
+        assertEquals(NUMERIC, INTEGER.widen(NUMERIC));
+        assertEquals(NUMERIC, NUMERIC.widen(BIGINT));
+        assertEquals(TIMESTAMP, TIMESTAMP.widen(TIMESTAMP));
+    }
+
+    @Test
+    void widenOfUnrelatedTypesIsVarchar() {
+        assertEquals(VARCHAR, BOOLEAN.widen(INTEGER));
+        assertEquals(VARCHAR, TIMESTAMP.widen(NUMERIC));
+        assertEquals(VARCHAR, JSONB.widen(VARCHAR));
+        assertEquals(VARCHAR, VARCHAR.widen(BOOLEAN));
+    }
+
+    @Test
+    void holdsOnlyNarrowerOrEqualTypes() {
+        assertTrue(NUMERIC.holds(INTEGER));
+        assertTrue(BIGINT.holds(BIGINT));
+        assertTrue(VARCHAR.holds(TIMESTAMP));
+        assertFalse(INTEGER.holds(BIGINT));
+        assertFalse(BOOLEAN.holds(VARCHAR));
+        assertFalse(NUMERIC.holds(BOOLEAN));
+    }
+
+    @Test
+    void ofAcceptsCatalogNames() {
+        assertEquals(INTEGER, of("int4"));
+        assertEquals(BIGINT, of("INT8"));
+        assertEquals(BOOLEAN, of("bool"));
+        assertEquals(VARCHAR, of("character varying"));
+        assertEquals(TIMESTAMP, of("timestamp without time zone"));
+        assertNull(of("uuid"));
+        assertNull(of(null));
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.schema;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TablePartitioningTest {
+    private static final TablePartitioning PARTITIONING =
+            TablePartitioning.list("categoryId", Map.of("root", List.of("1")));
+
+    @Test
+    void rowsCanMoveUnlessKeyIsId() {
+        assertTrue(PARTITIONING.rowsCanMove());
+        assertTrue(TablePartitioning.hash("categoryId", 4).rowsCanMove());
+        assertFalse(TablePartitioning.hash("id", 4).rowsCanMove());
+    }
+
+    @Test
+    void partitionsOfAnotherTableKeepBounds() {
+        // Промежуточная таблица распределения строк секционируется так же, как основная
+        assertEquals(List.of(
+                "CREATE TABLE IF NOT EXISTS xml_route_offers_root PARTITION OF xml_route_offers FOR VALUES IN ('1')",
+                "CREATE UNIQUE INDEX IF NOT EXISTS xml_route_offers_root_id_key ON xml_route_offers_root (id)",
+                "CREATE TABLE IF NOT EXISTS xml_route_offers_default PARTITION OF xml_route_offers DEFAULT",
+                "CREATE UNIQUE INDEX IF NOT EXISTS xml_route_offers_default_id_key ON xml_route_offers_default (id)"),
+                PARTITIONING.partitionsSql("xml_route_offers"));
+        assertEquals(List.of("CREATE TABLE IF NOT EXISTS xml_route_offers_p1 PARTITION OF xml_route_offers FOR VALUES WITH (MODULUS 2, REMAINDER 1)"),
+                TablePartitioning.hash("id", 2).partitionsSql("xml_route_offers").subList(1, 2));
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.schema;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableSchemaTest {
+    /**
+     * @param columns название и тип каждой колонки, первая колонка - первичный ключ
+     */
+    private static TableSchema schema(String... columns) {
+        TableSchema tableSchema = new TableSchema("currencies");
+        for (int i = 0; i < columns.length; i += 2) tableSchema.addColumn(columns[i], columns[i + 1], i == 0 ? "PRIMARY KEY" : "");
+        return tableSchema;
+    }
+
+    @Test
+    void canLoadSameOrNarrowerTypes() {
+        TableSchema database = schema("id", "varchar", "rate", "numeric");
+        assertTrue(database.canLoad(schema("id", "varchar", "rate", "numeric")));
+        assertTrue(database.canLoad(schema("id", "varchar", "rate", "integer")));
+        // Названия типов из pg_catalog
+        assertTrue(schema("id", "varchar", "rate", "int8").canLoad(schema("id", "varchar", "rate", "bigint")));
+    }
+
+    @Test
+    void cannotLoadWiderTypeOrOtherColumns() {
+        TableSchema database = schema("id", "varchar", "rate", "integer");
+        assertFalse(database.canLoad(schema("id", "varchar", "rate", "numeric")));
+        assertFalse(database.canLoad(schema("id", "varchar", "rate", "integer", "plus", "integer")));
+        assertFalse(database.canLoad(schema("id", "varchar")));
+        assertFalse(database.canLoad(schema("id", "varchar", "ratio", "integer")));
+
+        TableSchema withoutKey = new TableSchema("currencies");
+        withoutKey.addColumn("id", "varchar", "");
+        withoutKey.addColumn("rate", "integer", "");
+        assertFalse(database.canLoad(withoutKey));
+    }
+
+    @Test
+    void newColumnsSqlAddsColumnsAndWidensTypes() throws Exception {
+        TableSchema database = schema("id", "varchar", "rate", "integer");
+        assertNull(database.newColumnsSql(schema("id", "varchar", "rate", "integer")));
+        assertEquals("ALTER TABLE currencies\n    ADD COLUMN plus integer ;",
+                database.newColumnsSql(schema("id", "varchar", "rate", "integer", "plus", "integer")));
+        assertEquals("ALTER TABLE currencies\n    ALTER COLUMN rate TYPE numeric USING rate::numeric;",
+                database.newColumnsSql(schema("id", "varchar", "rate", "numeric")));
+        assertEquals("ALTER TABLE currencies\n    ALTER COLUMN rate TYPE varchar USING rate::varchar;",
+                database.newColumnsSql(schema("id", "varchar", "rate", "boolean")));
+    }
+
+    @Test
+    void newColumnsSqlRequiresAllDatabaseColumns() {
+        TableSchema database = schema("id", "varchar", "rate", "integer");
+        assertThrows(Exception.class, () -> database.newColumnsSql(schema("id", "varchar")));
+    }
+
+    @Test
+    void withChangesMatchesSchemaAfterNewColumnsSql() throws Exception {
+        TableSchema database = schema("id", "varchar", "rate", "integer");
+        TableSchema changed = database.withChanges(schema("id", "varchar", "rate", "numeric", "plus", "boolean"));
+        assertEquals("numeric", changed.getColumnType("rate"));
+        assertEquals("boolean", changed.getColumnType("plus"));
+        assertTrue(changed.canLoad(schema("id", "varchar", "rate", "bigint", "plus", "boolean")));
+        assertSame(database, database.withChanges(schema("id", "varchar", "rate", "integer")));
+    }
+}
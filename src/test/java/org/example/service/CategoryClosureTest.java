@@ -0,0 +1,129 @@
+package org.example.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryClosureTest {
+    private static final String CLOSURE_SQL =
+            "SELECT ancestor_id, descendant_id, depth FROM category_closure ORDER BY ancestor_id, descendant_id";
+    private static final String XMIN_SQL = "SELECT descendant_id, xmin FROM category_closure ORDER BY descendant_id, ancestor_id";
+
+    @TempDir
+    Path directory;
+    private TestDatabase database;
+    private Path feed;
+    private XmlDBService service;
+
+    @BeforeEach
+    void openDatabase() {
+        database = TestDatabase.open();
+    }
+
+    @AfterEach
+    void closeDatabase() throws Exception {
+        if (database != null) database.close();
+    }
+
+    /**
+     * Фид с категориями: id -> родитель (null для корневых)
+     */
+    private static String feed(Map<String, String> parents) {
+        StringBuilder xml = new StringBuilder("<yml_catalog><shop><categories>");
+        parents.forEach((id, parentId) -> xml.append("<category id=\"").append(id).append('"')
+                .append(parentId != null ? " parentId=\"" + parentId + "\"" : "").append(">Category ").append(id).append("</category>"));
+        return xml.append("</categories></shop></yml_catalog>").toString();
+    }
+
+    private void load(Map<String, String> parents) throws Exception {
+        if (service == null) {
+            feed = TestDatabase.feed(directory, feed(parents));
+            service = database.service(feed, new SyncOptions().categoryClosure(true));
+        } else {
+            FileTime modified = Files.getLastModifiedTime(feed);
+            Files.writeString(feed, feed(parents));
+            Files.setLastModifiedTime(feed, FileTime.fromMillis(modified.toMillis() + 1000));
+            service.refresh();
+        }
+        service.update("categories");
+    }
+
+    /**
+     * @return строки замыкания, построенные заново по всему дереву
+     */
+    private static List<String> closure(Map<String, String> parents) {
+        List<String[]> rows = new ArrayList<>();
+        for (String id : parents.keySet()) {
+            String ancestor = id;
+            for (int depth = 0; ancestor != null; depth++) {
+                rows.add(new String[]{ancestor, id, String.valueOf(depth)});
+                ancestor = parents.containsKey(parents.get(ancestor)) ? parents.get(ancestor) : null;
+            }
+        }
+        rows.sort(Comparator.<String[], String>comparing(row -> row[0]).thenComparing(row -> row[1]));
+        return rows.stream().map(row -> String.join(" | ", row)).toList();
+    }
+
+    /**
+     * @return xmin строк замыкания категорий ids (меняется, если строка удалена и вставлена заново)
+     */
+    private List<String> xmin(Set<String> ids) throws Exception {
+        return database.query(XMIN_SQL).stream().filter(row -> ids.contains(row.split(" \\| ")[0])).toList();
+    }
+
+    @Test
+    void onlyChangedSubtreesAreRebuilt() throws Exception {
+        Map<String, String> parents = new LinkedHashMap<>();
+        parents.put("1", null);
+        parents.put("2", "1");
+        parents.put("3", "2");
+        parents.put("4", null);
+        parents.put("5", "4");
+        load(parents);
+        assertEquals(closure(parents), database.query(CLOSURE_SQL));
+        List<String> untouched = xmin(Set.of("1", "4", "5"));
+
+        // Поддерево 2 (2 и 3) переносится под 4
+        parents.put("2", "4");
+        load(parents);
+        assertEquals(closure(parents), database.query(CLOSURE_SQL));
+        assertEquals(untouched, xmin(Set.of("1", "4", "5")));
+        List<String> moved = xmin(Set.of("2", "3"));
+
+        // Новая категория под 1 не затрагивает остальные
+        parents.put("6", "1");
+        load(parents);
+        assertEquals(closure(parents), database.query(CLOSURE_SQL));
+        assertEquals(untouched, xmin(Set.of("1", "4", "5")));
+        assertEquals(moved, xmin(Set.of("2", "3")));
+
+        // Категория 4 удалена: её дети становятся корневыми
+        parents.remove("4");
+        load(parents);
+        assertEquals(closure(parents), database.query(CLOSURE_SQL));
+        assertEquals(List.of("2 | 2 | 0", "3 | 3 | 0"), database.query(
+                "SELECT ancestor_id, descendant_id, depth FROM category_closure WHERE ancestor_id IN ('2', '3') AND depth = 0 ORDER BY 1"));
+        assertTrue(database.query("SELECT * FROM category_closure WHERE ancestor_id = '4' OR descendant_id = '4'").isEmpty());
+    }
+
+    @Test
+    void unchangedTreeKeepsClosureRows() throws Exception {
+        Map<String, String> parents = new LinkedHashMap<>();
+        parents.put("1", null);
+        parents.put("2", "1");
+        load(parents);
+        List<String> rows = database.query(XMIN_SQL);
+
+        // Новая версия фида с тем же деревом
+        load(parents);
+        assertEquals(rows, database.query(XMIN_SQL));
+    }
+}
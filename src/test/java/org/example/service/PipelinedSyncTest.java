@@ -0,0 +1,152 @@
+package org.example.service;
+
+import org.example.schema.TablePartitioning;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Конвейерная синхронизация (COPY jsonb -> jsonb_populate_record) даёт те же таблицы, что и обычная загрузка BulkLoader
+ */
+class PipelinedSyncTest {
+    private static final String FEED = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <yml_catalog date="2024-01-01 10:00">
+              <shop>
+                <currencies>
+                  <currency id="RUR" rate="1"/>
+                  <currency id="USD" rate="90.5"/>
+                </currencies>
+                <categories>
+                  <category id="1">Root</category>
+                  <category id="2" parentId="1">Child "quoted"</category>
+                </categories>
+                <offers>
+                  <offer id="10" available="true">
+                    <name>Tab\there, back\\\\slash, unicode ёжик</name>
+                    <price>100</price><currencyId>RUR</currencyId><categoryId>2</categoryId>
+                    <param name="Color">Red</param><param name="Size" unit="cm">10</param>
+                    <description><![CDATA[<p>Line 1
+            Line 2</p>]]></description>
+                  </offer>
+                  <offer id="11" available="false">
+                    <name></name>
+                    <price>1.5</price><currencyId>USD</currencyId><categoryId>1</categoryId>
+                  </offer>
+                  <offer id="12"><price>7</price><currencyId>RUR</currencyId><categoryId>1</categoryId>
+                    <param name="Color">"Blue" \\N</param>
+                  </offer>
+                </offers>
+              </shop>
+            </yml_catalog>
+            """;
+    // Изменены строка 10, удалена 12, добавлена 13
+    private static final String CHANGED_FEED = FEED
+            .replace("<price>100</price>", "<price>120</price>")
+            .replaceAll("(?s)<offer id=\"12\">.*?</offer>",
+                    "<offer id=\"13\"><price>3</price><currencyId>USD</currencyId><categoryId>2</categoryId></offer>");
+    private static final List<String> TABLES = List.of("currencies", "categories", "offers");
+
+    @TempDir
+    Path directory;
+    private TestDatabase normal;
+    private TestDatabase pipelined;
+
+    @BeforeEach
+    void openDatabases() {
+        normal = TestDatabase.open();
+        pipelined = TestDatabase.open();
+    }
+
+    @AfterEach
+    void closeDatabases() throws Exception {
+        if (normal != null) normal.close();
+        if (pipelined != null) pipelined.close();
+    }
+
+    @Test
+    void pipelinedLoadMatchesBulkLoader() throws Exception {
+        Path feed = TestDatabase.feed(directory, FEED);
+        XmlDBService normalService = normal.service(feed, new SyncOptions());
+        XmlDBService pipelinedService = pipelined.service(feed, new SyncOptions().pipelined(true));
+
+        Map<String, SyncSummary> normalResult = normalService.sync();
+        Map<String, SyncSummary> pipelinedResult = pipelinedService.sync();
+        assertEquals(counts(normalResult), counts(pipelinedResult));
+        assertEquals(contents(normal), contents(pipelined));
+
+        Files.writeString(feed, CHANGED_FEED);
+        Files.setLastModifiedTime(feed, FileTime.fromMillis(Files.getLastModifiedTime(feed).toMillis() + 1000));
+        normalResult = normalService.sync();
+        pipelinedResult = pipelinedService.sync();
+        assertEquals(List.of(1L, 1L, 1L, 1L), counts(normalResult).get(2));
+        assertEquals(counts(normalResult), counts(pipelinedResult));
+        assertEquals(contents(normal), contents(pipelined));
+    }
+
+    @Test
+    void normalUpdateAfterPipelinedLoadSeesNoChanges() throws Exception {
+        Path feed = TestDatabase.feed(directory, FEED);
+        pipelined.service(feed, new SyncOptions().pipelined(true)).sync();
+
+        // Отпечатки строк конвейера совпадают с отпечатками BulkLoader
+        Map<String, SyncSummary> result = pipelined.service(feed, new SyncOptions()).update();
+        for (String tableName : TABLES) {
+            SyncSummary summary = result.get(tableName);
+            assertEquals(0, summary.inserted() + summary.updated() + summary.deleted(), tableName);
+        }
+    }
+
+    @Test
+    void unsupportedOptionsAreRejected() throws Exception {
+        Path feed = TestDatabase.feed(directory, FEED);
+        List<SyncOptions> unsupported = List.of(
+                new SyncOptions().pipelined(true).shadowReload(true),
+                new SyncOptions().pipelined(true).resumable(true),
+                new SyncOptions().pipelined(true).categoryClosure(true),
+                new SyncOptions().pipelined(true).promoteParams(4, 0.5),
+                new SyncOptions().partitioning("offers", TablePartitioning.hash("id", 2)).pipelined(true));
+        for (SyncOptions options : unsupported) {
+            assertThrows(IllegalArgumentException.class, () -> pipelined.service(feed, options));
+        }
+    }
+
+    /**
+     * @return добавлено, изменено, удалено, не изменилось по таблицам
+     */
+    private static List<List<Long>> counts(Map<String, SyncSummary> result) {
+        List<List<Long>> counts = new ArrayList<>();
+        for (String tableName : TABLES) {
+            SyncSummary summary = result.get(tableName);
+            counts.add(List.of(summary.inserted(), summary.updated(), summary.deleted(), summary.unchanged()));
+        }
+        return counts;
+    }
+
+    /**
+     * @return колонки с типами, строки таблиц (jsonb не зависит от порядка колонок) и отпечатки строк
+     */
+    private static List<String> contents(TestDatabase database) throws SQLException {
+        List<String> contents = new ArrayList<>(database.query("""
+                SELECT table_name, column_name, data_type FROM information_schema.columns
+                WHERE table_schema = current_schema() AND table_name IN ('currencies', 'categories', 'offers')
+                ORDER BY table_name, column_name
+                """));
+        for (String tableName : TABLES) {
+            contents.addAll(database.query("SELECT to_jsonb(t) FROM " + tableName + " t ORDER BY id"));
+        }
+        contents.addAll(database.query("SELECT table_name, id, row_hash FROM xml_row_hashes ORDER BY table_name, id"));
+        return contents;
+    }
+}
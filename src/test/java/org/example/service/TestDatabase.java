@@ -0,0 +1,105 @@
+package org.example.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.example.feed.FileFeedSource;
+import org.junit.jupiter.api.Assumptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Бд для тестов: postgres из docker-compose (DataSourceFactory.DEFAULT_URL или -Dtest.db.url).
+ * Каждый тест работает в своей схеме, которая удаляется при close(). Если бд недоступна, тест пропускается
+ */
+final class TestDatabase implements AutoCloseable {
+    final HikariDataSource dataSource;
+    final String schemaName = "test_" + UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+    private final List<XmlDBService> services = new ArrayList<>();
+
+    private TestDatabase(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    static TestDatabase open() {
+        String url = System.getProperty("test.db.url", DataSourceFactory.DEFAULT_URL);
+        HikariDataSource dataSource;
+        try {
+            dataSource = DataSourceFactory.create(url, "admin", "admin", 8);
+        } catch (RuntimeException e) {
+            Assumptions.abort("Database " + url + " is not available: " + e.getMessage());
+            throw e;
+        }
+        return new TestDatabase(dataSource);
+    }
+
+    /**
+     * Сервис с фидом из файла в схеме теста, закрывается вместе с бд
+     */
+    XmlDBService service(Path feed, SyncOptions options) throws Exception {
+        XmlDBService service = new XmlDBService(new FileFeedSource(feed), dataSource, options, schemaName);
+        services.add(service);
+        return service;
+    }
+
+    /**
+     * Соединение, в котором таблицы без схемы ищутся в схеме теста
+     */
+    Connection connection() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE SCHEMA IF NOT EXISTS " + schemaName);
+            stmt.execute("SET search_path TO " + schemaName);
+        }
+        return connection;
+    }
+
+    void execute(String sql) throws SQLException {
+        try (Connection connection = connection(); Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    /**
+     * @return строки запроса, значения колонок строки через " | "
+     */
+    List<String> query(String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = connection(); Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(sql)) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                List<String> values = new ArrayList<>();
+                for (int i = 1; i <= columns; i++) values.add(resultSet.getString(i));
+                rows.add(String.join(" | ", values));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Записывает xml во временный файл
+     */
+    static Path feed(Path directory, String xml) throws IOException {
+        Path path = Files.createTempFile(directory, "feed", ".xml");
+        Files.writeString(path, xml);
+        return path;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        services.forEach(XmlDBService::close);
+        try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP SCHEMA IF EXISTS " + schemaName + " CASCADE");
+        } finally {
+            dataSource.close();
+        }
+    }
+}
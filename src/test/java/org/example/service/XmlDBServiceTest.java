@@ -0,0 +1,259 @@
+package org.example.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.example.feed.FeedCache;
+import org.example.feed.FileFeedSource;
+import org.example.feed.HttpFeedSource;
+import org.example.schema.TablePartitioning;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XmlDBServiceTest {
+    private static final String FEED = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <yml_catalog date="2024-01-01 10:00">
+              <shop>
+                <currencies>
+                  <currency id="RUR" rate="1"/>
+                  <currency id="USD" rate="90.5"/>
+                </currencies>
+                <categories>
+                  <category id="1">Root</category>
+                  <category id="2" parentId="1">Child</category>
+                </categories>
+                <offers>
+                  <offer id="10" available="true"><price>100</price><currencyId>RUR</currencyId><categoryId>2</categoryId></offer>
+                  <offer id="11" available="false"><price>1.5</price><currencyId>USD</currencyId><categoryId>1</categoryId></offer>
+                </offers>
+              </shop>
+            </yml_catalog>
+            """;
+
+    @TempDir
+    Path directory;
+    private TestDatabase database;
+
+    @BeforeEach
+    void openDatabase() {
+        database = TestDatabase.open();
+    }
+
+    @AfterEach
+    void closeDatabase() throws Exception {
+        if (database != null) database.close();
+    }
+
+    @Test
+    void updateWithChangeFillsAddedColumnInUnchangedRows() throws Exception {
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions());
+        service.update("currencies");
+
+        // Колонка удалена в обход сервиса, строки xml не менялись
+        database.execute("ALTER TABLE currencies DROP rate");
+        service.refreshSchemas();
+        assertThrows(Exception.class, () -> service.update("currencies"));
+
+        SyncSummary summary = service.updateWithChange("currencies");
+        assertEquals(2, summary.updated());
+        assertEquals(List.of("RUR | 1", "USD | 90.5"), database.query("SELECT id, rate FROM currencies ORDER BY id"));
+    }
+
+    @Test
+    void updateAfterDdlChangeFillsAddedColumn() throws Exception {
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions());
+        service.update("currencies");
+        database.execute("ALTER TABLE currencies DROP rate");
+        service.refreshSchemas();
+
+        // Запрос getDDLChange выполнен вручную, как описано в его документации
+        database.execute(service.getDDLChange("currencies"));
+        service.refreshSchemas();
+        service.update("currencies");
+        assertEquals(List.of("RUR | 1", "USD | 90.5"), database.query("SELECT id, rate FROM currencies ORDER BY id"));
+    }
+
+    @Test
+    void refreshSchemasRepairsRowsEditedOutsideService() throws Exception {
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions());
+        service.update();
+        database.execute("UPDATE offers SET price = 0");
+
+        assertEquals(2, service.update("offers").unchanged());
+        service.refreshSchemas();
+        assertEquals(2, service.update("offers").updated());
+        assertEquals(List.of("10 | 100", "11 | 1.5"), database.query("SELECT id, price FROM offers ORDER BY id"));
+    }
+
+    @Test
+    void unchangedFeedWritesNothing() throws Exception {
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions());
+        assertEquals(2, service.update("offers").inserted());
+        SyncSummary summary = service.update("offers");
+        assertEquals(0, summary.inserted() + summary.updated() + summary.deleted());
+        assertEquals(2, summary.unchanged());
+    }
+
+    @Test
+    void syncSkipsVersionAlreadyInDatabase() throws Exception {
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions());
+        assertEquals(List.of("currencies", "categories", "offers"), List.copyOf(service.sync().keySet()));
+        assertTrue(service.sync().isEmpty());
+        assertFalse(service.refresh());
+    }
+
+    @Test
+    void syncReloadsAfterDatabaseReset() throws Exception {
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions());
+        service.sync();
+        database.execute("DROP SCHEMA " + database.schemaName + " CASCADE; CREATE SCHEMA " + database.schemaName);
+
+        assertTrue(service.refresh());
+        assertEquals(2, service.sync().get("offers").inserted());
+        assertEquals(List.of("10", "11"), database.query("SELECT id FROM offers ORDER BY id"));
+    }
+
+    @Test
+    void syncedVersionIsNotSharedBetweenSchemas() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/feed.xml", exchange -> {
+            byte[] content = FEED.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/feed.xml";
+        // Общий каталог кэша, как java.io.tmpdir/xml-feed-cache у сервисов по умолчанию
+        Path cacheDirectory = directory.resolve("cache");
+        try (TestDatabase other = TestDatabase.open()) {
+            XmlDBService first = new XmlDBService(new HttpFeedSource(url, new FeedCache(cacheDirectory)),
+                    database.dataSource, new SyncOptions(), database.schemaName);
+            assertFalse(first.sync().isEmpty());
+            assertTrue(first.sync().isEmpty());
+
+            XmlDBService second = new XmlDBService(new HttpFeedSource(url, new FeedCache(cacheDirectory)),
+                    other.dataSource, new SyncOptions(), other.schemaName);
+            assertEquals(2, second.sync().get("offers").inserted());
+            assertEquals(List.of("10", "11"), other.query("SELECT id FROM offers ORDER BY id"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void pipelinedSyncSkipsVersionAlreadyInDatabase() throws Exception {
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions().pipelined(true));
+        assertEquals(2, service.sync().get("offers").inserted());
+        assertTrue(service.sync().isEmpty());
+
+        database.execute("DROP TABLE offers");
+        assertEquals(2, service.sync().get("offers").inserted());
+    }
+
+    @Test
+    void closeKeepsCallerPoolOpen() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.example:type=SyncMetrics,name=xml-db-" + database.schemaName);
+        try (XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions())) {
+            service.update("currencies");
+            assertTrue(server.isRegistered(name));
+        }
+        assertFalse(server.isRegistered(name));
+        assertFalse(database.dataSource.isClosed());
+        assertEquals(List.of("RUR", "USD"), database.query("SELECT id FROM currencies ORDER BY id"));
+
+        // Имя MBean освобождено и достаётся следующему сервису той же схемы
+        try (XmlDBService service = database.service(TestDatabase.feed(directory, FEED), new SyncOptions())) {
+            assertTrue(server.isRegistered(name));
+        }
+    }
+
+    @Test
+    void closeClosesOwnPool() throws Exception {
+        Assumptions.assumeTrue(System.getProperty("test.db.url") == null, "Own pool connects to the default database");
+        XmlDBService service;
+        try {
+            service = new XmlDBService(new FileFeedSource(TestDatabase.feed(directory, FEED)), false);
+        } catch (RuntimeException e) {
+            Assumptions.abort("Default database is not available: " + e.getMessage());
+            return;
+        }
+        service.close();
+        // Пул закрыт: обращение к бд завершается ошибкой, а не ждёт соединения
+        assertThrows(Exception.class, () -> service.update("currencies"));
+    }
+
+    @Test
+    void rowMovedBetweenListPartitionsIsNeitherLostNorDuplicated() throws Exception {
+        Path feed = TestDatabase.feed(directory, FEED);
+        SyncOptions options = new SyncOptions().parallelism(2)
+                .partitioning("offers", TablePartitioning.list("categoryId", Map.of("root", List.of("1"))));
+        XmlDBService service = database.service(feed, options);
+        service.update("offers");
+        String partitions = "SELECT id, tableoid::regclass FROM offers ORDER BY id";
+        assertEquals(List.of("10 | offers_default", "11 | offers_root"), database.query(partitions));
+
+        // Offer 10 переходит в секцию root, вставка в неё завершается ошибкой
+        Files.writeString(feed, FEED.replace("<categoryId>2</categoryId>", "<categoryId>1</categoryId>"));
+        Files.setLastModifiedTime(feed, FileTime.fromMillis(Files.getLastModifiedTime(feed).toMillis() + 1000));
+        service.refresh();
+        database.execute("""
+                CREATE FUNCTION reject_insert() RETURNS trigger LANGUAGE plpgsql AS $$
+                BEGIN RAISE EXCEPTION 'insert rejected'; END $$;
+                CREATE TRIGGER reject_insert BEFORE INSERT ON offers_root FOR EACH ROW EXECUTE FUNCTION reject_insert()
+                """);
+        assertThrows(Exception.class, () -> service.update("offers"));
+        assertEquals(List.of("10 | offers_default", "11 | offers_root"), database.query(partitions));
+
+        database.execute("DROP TRIGGER reject_insert ON offers_root");
+        service.update("offers");
+        assertEquals(List.of("10 | offers_root", "11 | offers_root"), database.query(partitions));
+        assertEquals(List.of("t"), database.query("SELECT to_regclass('xml_route_offers') IS NULL"));
+    }
+
+    @Test
+    void hashPartitionsHoldEveryRowOnce() throws Exception {
+        SyncOptions options = new SyncOptions().parallelism(2).partitioning("offers", TablePartitioning.hash("id", 2));
+        XmlDBService service = database.service(TestDatabase.feed(directory, FEED), options);
+        assertEquals(2, service.update("offers").inserted());
+        assertEquals(List.of("10 | 100", "11 | 1.5"), database.query("SELECT id, price FROM offers ORDER BY id"));
+        // Строка в чужой секции нарушила бы её ограничение, поэтому достаточно проверить, что строк не больше
+        assertEquals(List.of("2"), database.query("SELECT (SELECT count(*) FROM offers_p0) + (SELECT count(*) FROM offers_p1)"));
+        assertEquals(0, service.update("offers").inserted());
+        // Промежуточная таблица распределения строк удаляется после параллельной загрузки секций
+        assertEquals(List.of("t"), database.query("SELECT to_regclass('xml_route_offers') IS NULL"));
+    }
+
+    @Test
+    void rowWithoutPartitionKeyFailsUpdate() throws Exception {
+        String feed = FEED.replace("<categoryId>1</categoryId>", "");
+        SyncOptions options = new SyncOptions().partitioning("offers", TablePartitioning.list("categoryId", Map.of("root", List.of("1"))));
+        XmlDBService service = database.service(TestDatabase.feed(directory, feed), options);
+        Exception e = assertThrows(Exception.class, () -> service.update("offers"));
+        assertTrue(e.getMessage().contains("has no value of partition key categoryid"), e.getMessage());
+    }
+}